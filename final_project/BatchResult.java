@@ -0,0 +1,45 @@
+package final_project;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// outcome of a bulk rent or return: either every item went through or none did
+//
+// items are isbns or student ids depending on the operation; only the items that caused the
+// batch to be refused have a reason, the rest of a refused batch simply did not happen
+public class BatchResult {
+
+    private final boolean committed;
+    private final List<String> items;
+    private final Map<String, RejectReason> reasons;
+
+    public BatchResult(boolean committed, List<String> items, Map<String, RejectReason> reasons) {
+        this.committed = committed;
+        this.items = items;
+        this.reasons = new LinkedHashMap<>(reasons);
+    }
+
+    public boolean isCommitted() {
+        return committed;
+    }
+
+    public List<String> getItems() {
+        return Collections.unmodifiableList(items);
+    }
+
+    // why the item was refused, null when it was not the problem
+    public RejectReason getReason(String item) {
+        return reasons.get(item);
+    }
+
+    public Map<String, RejectReason> getReasons() {
+        return Collections.unmodifiableMap(reasons);
+    }
+
+    @Override
+    public String toString() {
+        return committed ? "committed " + items : "refused " + reasons;
+    }
+}
@@ -3,14 +3,26 @@ package final_project;
 import java.io.*;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-public class BinaryStudentRegistry {
+public class BinaryStudentRegistry implements StudentRegistry {
+
+    // RecordFile header of students.dat
+    private static final int MAGIC = 0x53545544; // "STUD"
+    private static final short VERSION = 1;
 
     private final Path dataFile;
-    private final Map<String, Student> indexById = new HashMap<>(); // hashmap for studentId => Student Object
-    private final ReadWriteLock lock = new ReentrantReadWriteLock(); // lock that allows thread-safety resource access
+    private final Map<String, Student> indexById = new ConcurrentHashMap<>(); // studentId => Student Object, read without locking
+
+    // writers share the read side, load() and the snapshot copy in save() take the write side
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Object saveLock = new Object(); // one students.dat written at a time
+
+    // what listAll() hands out, rebuilt only after the students changed
+    private final PublishedList<Student> students = new PublishedList<>(indexById::values);
+    private final ChangeFeed<StudentChange> changes = new ChangeFeed<>();
 
     // default constructor
     public BinaryStudentRegistry(Path baseDir) {
@@ -19,6 +31,7 @@ public class BinaryStudentRegistry {
 
     // load function
     public void load() throws IOException, ClassNotFoundException {
+        boolean legacy = false;
 
         // don't allow writing by locking the thread
         lock.writeLock().lock();
@@ -27,85 +40,96 @@ public class BinaryStudentRegistry {
         try {
             // clear the hashmap
             indexById.clear();
+            students.invalidate();
 
             // check if the path exists
             if (!Files.exists(dataFile)) {
-                return;
+                // nothing to read, the registry is just empty
             }
-
-            // read the file using ObjectInputStream
-            try (ObjectInputStream inputStream = new ObjectInputStream(new FileInputStream(dataFile.toFile()))) {
-                Object obj = inputStream.readObject(); // read the object
-
-                // suppose we don't know the object but it's a list
-                if (obj instanceof List<?> list) {
-                    for (Object listObject : list) { // iterate through all elements
-                        if (listObject instanceof Student) { // check if the object is a student
-                            Student s = (Student)listObject; // cast
-                            indexById.put(s.getId(), s); // populate the hashmap
-                        }
-                    }
+            else if (RecordFile.isLegacy(dataFile)) {
+                // objectoutputstream snapshot from before the record format
+                legacy = true;
+                for (Student s : SnapshotMigrator.readLegacy(dataFile, Student.class)) {
+                    indexById.put(s.getId(), s); // populate the hashmap
                 }
             }
+            else {
+                // stream the records straight into the hashmap
+                RecordFile.read(dataFile, MAGIC, VERSION, BinaryStudentRegistry::readStudent, s -> indexById.put(s.getId(), s));
+            }
         } 
         finally {
             // unlock the writing
             lock.writeLock().unlock();
         }
+
+        changes.publish(new StudentChange(ChangeKind.RELOADED, null));
+
+        if (legacy) {
+            // one-time migration, the old file is kept as students.dat.v0
+            SnapshotMigrator.backupLegacy(dataFile);
+            save();
+        }
     }
 
+    // writers only pause while the current list is taken, the file is written beside them
     public void save() throws IOException {
-        // only allow writing by locking reading
-        lock.readLock().lock();
-        try {
-            // create the directories
-            Files.createDirectories(dataFile.getParent());
-
-            // create objectoutputstream to write the student object into the datafile
-            try (ObjectOutputStream outputStream = new ObjectOutputStream(new FileOutputStream(dataFile.toFile()))) {
-                outputStream.writeObject(new ArrayList<>(indexById.values()));
+        synchronized (saveLock) {
+            List<Student> snapshot;
+            lock.writeLock().lock();
+            try {
+                snapshot = students.get(); // point-in-time, usually already built
             }
-        } 
-        finally {
-            // unlock the reading lock
-            lock.readLock().unlock();
+            finally {
+                lock.writeLock().unlock();
+            }
+
+            // length-prefixed records, written to a temp file and moved into place
+            RecordFile.write(dataFile, MAGIC, VERSION, snapshot, BinaryStudentRegistry::writeStudent);
         }
     }
 
     public void addOrUpdateStudent(Student s) {
-        lock.writeLock().lock(); // lock the output so we can save to the file
+        Student previous;
+        lock.readLock().lock(); // shared with other writers, the map handles them
         try {
             // try to create hashmap element
-            indexById.put(s.getId(), s);
+            previous = indexById.put(s.getId(), s);
+            students.invalidate();
         } 
         finally {
-            // allow writing
-            lock.writeLock().unlock();
+            lock.readLock().unlock();
         }
+        changes.publish(new StudentChange(previous == null ? ChangeKind.ADDED : ChangeKind.UPDATED, s));
     }
 
     public Optional<Student> findById(String id) {
-        lock.readLock().lock(); // lock the input
-        try {
-            // create an Optional to hold students that could be null
-            return Optional.ofNullable(indexById.get(id));
-        } 
-        finally {
-            // unlock reading
-            lock.readLock().unlock();
-        }
+        // create an Optional to hold students that could be null, no lock needed
+        return Optional.ofNullable(indexById.get(id));
     }
 
+    // unmodifiable and shared between callers until the next change
     public List<Student> listAll() {
-        // lock reading
-        lock.readLock().lock();
-        try {
-            // return all of the student objects
-            return new ArrayList<>(indexById.values());
-        } 
-        finally {
-            // unlock reading
-            lock.readLock().unlock();
-        }
+        return students.get();
+    }
+
+    public ChangeFeed<StudentChange> changes() {
+        return changes;
+    }
+
+    // record payload, shared with MappedStudentRegistry
+    static void writeStudent(Student s, DataOutput out) throws IOException {
+        out.writeUTF(s.getId());
+        RecordFile.writeNullableUTF(out, s.getName());
+        RecordFile.writeNullableUTF(out, s.getProgram());
+        out.writeInt(s.getYear());
+    }
+
+    static Student readStudent(DataInput in, short version) throws IOException {
+        String id = in.readUTF();
+        String name = RecordFile.readNullableUTF(in);
+        String program = RecordFile.readNullableUTF(in);
+        int year = in.readInt();
+        return new Student(id, name, program, year);
     }
 }
\ No newline at end of file
@@ -1,10 +1,19 @@
 package final_project;
 
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
 public class Book extends Item implements Rentable {
 
-    private int totalCopies;
-    private int checkedOut;
-    private int available;
+    // pinned to the value of the original class so existing catalog.dat files still load
+    private static final long serialVersionUID = 4336217130598634432L;
+
+    // compare-and-set access to checkedOut, so concurrent rentals of one isbn never oversell
+    private static final AtomicIntegerFieldUpdater<Book> CHECKED_OUT =
+            AtomicIntegerFieldUpdater.newUpdater(Book.class, "checkedOut");
+
+    // volatile so getAvailable() can read the counts without any lock
+    private volatile int totalCopies;
+    private volatile int checkedOut;
 
     // default constructor
     public Book(String isbn, String title, int totalCopies) {
@@ -23,7 +32,6 @@ public class Book extends Item implements Rentable {
         // set values
         this.totalCopies = totalCopies;
         this.checkedOut = checkedOut;
-        this.available = totalCopies;
     }
 
     // overridden voids
@@ -34,20 +42,53 @@ public class Book extends Item implements Rentable {
 
     @Override
     public void checkout() {
-        if (!isAvailable()) {
-            return;
-        }
-        checkedOut++;
-        available--;
+        tryCheckout();
     }
 
     @Override
     public void checkin() {
-        if (checkedOut == 0) {
+        if (!tryCheckin()) {
             throw new IllegalStateException("Nothing to return");
         }
-        checkedOut--;
-        available++;
+    }
+
+    // reserve one copy, returns false instead of overselling when none are left
+    public boolean tryCheckout() {
+        while (true) {
+            int current = checkedOut;
+            if (current >= totalCopies) {
+                return false;
+            }
+            if (CHECKED_OUT.compareAndSet(this, current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    // reserve several copies at once, either all of them or none
+    public boolean tryCheckout(int copies) {
+        while (true) {
+            int current = checkedOut;
+            if (current + copies > totalCopies) {
+                return false;
+            }
+            if (CHECKED_OUT.compareAndSet(this, current, current + copies)) {
+                return true;
+            }
+        }
+    }
+
+    // release one copy, returns false when nothing is checked out
+    public boolean tryCheckin() {
+        while (true) {
+            int current = checkedOut;
+            if (current == 0) {
+                return false;
+            }
+            if (CHECKED_OUT.compareAndSet(this, current, current - 1)) {
+                return true;
+            }
+        }
     }
 
     // getters
@@ -65,7 +106,7 @@ public class Book extends Item implements Rentable {
     }
 
     // set totalCopies
-    public void setTotalCopies(int totalCopies) {
+    public synchronized void setTotalCopies(int totalCopies) {
         if (totalCopies < checkedOut) {
             throw new IllegalArgumentException("totalCopies cannot be less than checkedOut");
         }
@@ -0,0 +1,43 @@
+package final_project;
+
+// one catalog change, the counts are the ones right after it; isbn and book are null for RELOADED
+public class BookChange {
+
+    private final ChangeKind kind;
+    private final String isbn;
+    private final Book book;
+    private final int totalCopies;
+    private final int checkedOut;
+
+    public BookChange(ChangeKind kind, Book book) {
+        this.kind = kind;
+        this.book = book;
+        this.isbn = book == null ? null : book.getIsbn();
+        this.totalCopies = book == null ? 0 : book.getTotalCopies();
+        this.checkedOut = book == null ? 0 : book.getCheckedOut();
+    }
+
+    public ChangeKind getKind() {
+        return kind;
+    }
+
+    public String getIsbn() {
+        return isbn;
+    }
+
+    public Book getBook() {
+        return book;
+    }
+
+    public int getTotalCopies() {
+        return totalCopies;
+    }
+
+    public int getCheckedOut() {
+        return checkedOut;
+    }
+
+    public int getAvailable() {
+        return totalCopies - checkedOut;
+    }
+}
@@ -0,0 +1,7 @@
+package final_project;
+
+// how LibraryCatalog answers aggregate queries like totalCheckedOut() and lowAvailability()
+public enum CatalogBackend {
+    HEAP,     // walks the Book objects
+    COLUMNAR  // ColumnarCatalog kept in step with every count change, the queries are primitive loops
+}
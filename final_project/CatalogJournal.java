@@ -0,0 +1,208 @@
+package final_project;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+public class CatalogJournal implements Closeable {
+
+    // record codes written in front of every journal entry
+    static final byte ADD = 0;
+    static final byte CHECKOUT = 1;
+    static final byte CHECKIN = 2;
+
+    private final Path journalFile;
+    private final Path rotatedFile; // entries of a snapshot that is still being written, see rotate()
+    private FileChannel channel; // long-lived append handle, opened after replay
+    private long entries; // number of records since the last snapshot
+
+    // records appended since the last flush, written to the file in one go by flush()
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream(4096);
+
+    // default constructor
+    public CatalogJournal(Path journalFile) {
+        this.journalFile = journalFile;
+        this.rotatedFile = journalFile.resolveSibling(journalFile.getFileName() + ".old");
+    }
+
+    // replay every complete record into the map and open the journal for appending; a rotated journal
+    // left by a snapshot that never finished comes first, its entries count as still unsaved
+    public synchronized void replay(Map<String, Book> byIsbn) throws IOException {
+        entries = 0;
+        if (Files.exists(rotatedFile)) {
+            replayFile(rotatedFile, byIsbn);
+        }
+        long validLength = replayFile(journalFile, byIsbn);
+
+        openChannel();
+
+        // cut off a partially written record so new entries start on a clean boundary
+        if (channel.size() > validLength) {
+            channel.truncate(validLength);
+        }
+    }
+
+    // length of the complete records at the start of the file
+    private long replayFile(Path file, Map<String, Book> byIsbn) throws IOException {
+        long validLength = 0;
+
+        if (Files.exists(file)) {
+            // binary input with datainputstream, same as the student logs
+            try (CountingInputStream counter = new CountingInputStream(new BufferedInputStream(Files.newInputStream(file)));
+                 DataInputStream in = new DataInputStream(counter)) {
+
+                while (true) {
+                    try {
+                        byte op = in.readByte(); // record code
+                        String isbn = in.readUTF(); // isbn
+
+                        if (op == ADD) {
+                            String title = in.readUTF(); // title
+                            int total = in.readInt(); // total copies
+                            int checkedOut = in.readInt(); // checked out copies
+                            byIsbn.put(isbn, new Book(isbn, title, total, checkedOut));
+                        }
+                        else {
+                            Book book = byIsbn.get(isbn);
+                            if (book != null) {
+                                if (op == CHECKOUT) {
+                                    book.checkout();
+                                }
+                                else {
+                                    book.tryCheckin();
+                                }
+                            }
+                        }
+
+                        // only count the record once it has been read completely
+                        validLength = counter.getCount();
+                        entries++;
+                    }
+                    catch (EOFException eof) {
+                        // a torn record at the tail is dropped by the caller
+                        break;
+                    }
+                }
+            }
+        }
+        return validLength;
+    }
+
+    public void appendAdd(Book book) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(ADD);
+        out.writeUTF(book.getIsbn());
+        out.writeUTF(book.getTitle());
+        out.writeInt(book.getTotalCopies());
+        out.writeInt(book.getCheckedOut());
+        append(bytes.toByteArray());
+    }
+
+    public void appendCheckout(String isbn) throws IOException {
+        append(encodeDelta(CHECKOUT, isbn));
+    }
+
+    public void appendCheckin(String isbn) throws IOException {
+        append(encodeDelta(CHECKIN, isbn));
+    }
+
+    // write every pending record with a single call, then optionally fsync
+    public void flush(boolean force) throws IOException {
+        FileChannel target;
+        synchronized (this) {
+            openChannel();
+            target = channel;
+            if (pending.size() > 0) {
+                ByteBuffer buffer = ByteBuffer.wrap(pending.toByteArray());
+                pending.reset();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        }
+
+        // fsync outside the monitor so appenders are not stalled behind the disk
+        if (force) {
+            try {
+                target.force(false);
+            }
+            catch (ClosedChannelException e) {
+                // rotated meanwhile, rotate() forced it before closing
+            }
+        }
+    }
+
+    // number of records a replay would have to apply on top of the snapshot
+    public synchronized long entries() {
+        return entries;
+    }
+
+    // moves every record so far aside and starts an empty journal, called while no mutation is in
+    // flight; the moved records stay on disk until dropRotated(), so a crash before the snapshot
+    // is complete still replays them
+    public synchronized void rotate() throws IOException {
+        openChannel();
+        ByteBuffer buffer = ByteBuffer.wrap(pending.toByteArray());
+        pending.reset();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+        channel.close();
+        channel = null;
+
+        if (Files.exists(rotatedFile)) {
+            // an earlier snapshot failed, its records are still needed, so add to them
+            try (FileChannel rotated = FileChannel.open(rotatedFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                rotated.write(ByteBuffer.wrap(Files.readAllBytes(journalFile)));
+                rotated.force(false);
+            }
+            Files.delete(journalFile);
+        }
+        else if (Files.exists(journalFile)) {
+            Files.move(journalFile, rotatedFile, StandardCopyOption.ATOMIC_MOVE);
+        }
+        entries = 0;
+    }
+
+    // the snapshot taken at the last rotate() is durable, its records are no longer needed
+    public synchronized void dropRotated() throws IOException {
+        Files.deleteIfExists(rotatedFile);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private static byte[] encodeDelta(byte op, String isbn) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(24);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(op);
+        out.writeUTF(isbn);
+        return bytes.toByteArray();
+    }
+
+    // synchronized = one record at a time, so entries never interleave
+    private synchronized void append(byte[] record) {
+        pending.writeBytes(record);
+        entries++;
+    }
+
+    private void openChannel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            Files.createDirectories(journalFile.getParent());
+            channel = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+    }
+}
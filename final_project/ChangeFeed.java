@@ -0,0 +1,33 @@
+package final_project;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+// change events of one store, delivered synchronously on the thread that made the change
+//
+// subscribers run on the rental path, so they should only hand the change off, e.g. into a map
+// that the UI drains once per frame; one that throws does not stop the others
+public class ChangeFeed<E> {
+
+    private final CopyOnWriteArrayList<Consumer<E>> subscribers = new CopyOnWriteArrayList<>();
+
+    // returns the call that ends the subscription
+    public Runnable subscribe(Consumer<E> subscriber) {
+        subscribers.add(subscriber);
+        return () -> subscribers.remove(subscriber);
+    }
+
+    // lets publishers skip building events nobody reads
+    public boolean hasSubscribers() {
+        return !subscribers.isEmpty();
+    }
+
+    void publish(E change) {
+        for (Consumer<E> subscriber : subscribers) {
+            try {
+                subscriber.accept(change);
+            }
+            catch (RuntimeException ignored) {}
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package final_project;
+
+// what a ChangeFeed event describes, RELOADED = everything may have changed, read it all again
+public enum ChangeKind {
+    ADDED,
+    UPDATED,
+    RELOADED
+}
@@ -0,0 +1,367 @@
+package final_project;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// copy counts of the catalog in columns, for reports over very large inventories: one row per isbn,
+// every column in off-heap direct buffers, no Book objects and no per-row heap strings. LibraryCatalog
+// keeps one in step with its books when CatalogBackend.COLUMNAR is selected
+//
+//   isbns      dictionary, the row number is the isbn's id
+//   titles     dictionary, distinct titles stored once
+//   titleIds   int column, row -> title id
+//   totals     int column, total copies
+//   checkedOut int column, updated with compare-and-set like Book.checkedOut
+public class ColumnarCatalog {
+
+    // int view over direct buffers, supports compare-and-set on aligned slots
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    private static final int INITIAL_ROWS = 1024;
+
+    private final StringDictionary isbns = new StringDictionary();
+    private final StringDictionary titles = new StringDictionary();
+    private ByteBuffer titleIds;
+    private ByteBuffer totals;
+    private ByteBuffer checkedOut;
+    private int rows;
+
+    // growth swaps the buffers, so it holds the write side, everything else the read side
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // default constructor
+    public ColumnarCatalog() {
+        this.titleIds = column(INITIAL_ROWS);
+        this.totals = column(INITIAL_ROWS);
+        this.checkedOut = column(INITIAL_ROWS);
+    }
+
+    // snapshot of an existing catalog's books
+    public static ColumnarCatalog from(Collection<Book> books) {
+        ColumnarCatalog columnar = new ColumnarCatalog();
+        for (Book b : books) {
+            columnar.add(b.getIsbn(), b.getTitle(), b.getTotalCopies(), b.getCheckedOut());
+        }
+        return columnar;
+    }
+
+    // insert or overwrite the row for the isbn, returns the row number
+    public int add(String isbn, String title, int totalCopies, int checkedOutCopies) {
+        if (totalCopies < 0 || checkedOutCopies < 0 || checkedOutCopies > totalCopies) {
+            throw new IllegalArgumentException("Invalid copy counts");
+        }
+
+        lock.writeLock().lock();
+        try {
+            int row = isbns.intern(isbn);
+            if (row == rows) {
+                // new isbn, dictionary ids are dense so it is the next row
+                rows++;
+                ensureRows(rows);
+            }
+            titleIds.putInt(row * 4, titles.intern(title));
+            totals.putInt(row * 4, totalCopies);
+            INT.setVolatile(checkedOut, row * 4, checkedOutCopies);
+            return row;
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean tryCheckout(String isbn) {
+        lock.readLock().lock();
+        try {
+            int row = isbns.find(isbn);
+            if (row < 0) {
+                return false;
+            }
+            int total = totals.getInt(row * 4);
+            while (true) {
+                int current = (int) INT.getVolatile(checkedOut, row * 4);
+                if (current >= total) {
+                    return false;
+                }
+                if (INT.compareAndSet(checkedOut, row * 4, current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean tryCheckin(String isbn) {
+        lock.readLock().lock();
+        try {
+            int row = isbns.find(isbn);
+            if (row < 0) {
+                return false;
+            }
+            while (true) {
+                int current = (int) INT.getVolatile(checkedOut, row * 4);
+                if (current == 0) {
+                    return false;
+                }
+                if (INT.compareAndSet(checkedOut, row * 4, current, current - 1)) {
+                    return true;
+                }
+            }
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // applies a change of the checked out count that already happened elsewhere, e.g. on the Book;
+    // deltas add up in any order, so concurrent callers need no coordination
+    public void adjustCheckedOut(String isbn, int delta) {
+        lock.readLock().lock();
+        try {
+            int row = isbns.find(isbn);
+            if (row >= 0) {
+                INT.getAndAdd(checkedOut, row * 4, delta);
+            }
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // materializes a Book copy of the row, changes to it do not write back
+    public Optional<Book> get(String isbn) {
+        lock.readLock().lock();
+        try {
+            int row = isbns.find(isbn);
+            if (row < 0) {
+                return Optional.empty();
+            }
+            return Optional.of(bookAt(row));
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return rows;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // sum of one column, a plain loop over primitive ints; the reads are plain too, a report is a
+    // moment's picture and rentals running beside it land on either side of it
+    public long totalCheckedOut() {
+        lock.readLock().lock();
+        try {
+            long sum = 0;
+            for (int row = 0; row < rows; row++) {
+                sum += checkedOut.getInt(row * 4);
+            }
+            return sum;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long totalCopies() {
+        lock.readLock().lock();
+        try {
+            long sum = 0;
+            for (int row = 0; row < rows; row++) {
+                sum += totals.getInt(row * 4);
+            }
+            return sum;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // isbns with at most maxAvailable copies left, strings are only decoded for matching rows
+    public List<String> lowAvailability(int maxAvailable) {
+        lock.readLock().lock();
+        try {
+            List<String> result = new ArrayList<>();
+            for (int row = 0; row < rows; row++) {
+                int available = totals.getInt(row * 4) - checkedOut.getInt(row * 4);
+                if (available <= maxAvailable) {
+                    result.add(isbns.get(row));
+                }
+            }
+            return result;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // direct memory held by columns and dictionaries
+    public long offHeapBytes() {
+        lock.readLock().lock();
+        try {
+            return titleIds.capacity() + totals.capacity() + checkedOut.capacity()
+                    + isbns.offHeapBytes() + titles.offHeapBytes();
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Book bookAt(int row) {
+        String title = titles.get(titleIds.getInt(row * 4));
+        return new Book(isbns.get(row), title, totals.getInt(row * 4), (int) INT.getVolatile(checkedOut, row * 4));
+    }
+
+    private void ensureRows(int needed) {
+        if (needed * 4 <= totals.capacity()) {
+            return;
+        }
+        int newRows = totals.capacity() / 4 * 2;
+        titleIds = grow(titleIds, newRows);
+        totals = grow(totals, newRows);
+        checkedOut = grow(checkedOut, newRows);
+    }
+
+    private static ByteBuffer column(int rows) {
+        return ByteBuffer.allocateDirect(rows * 4).order(ByteOrder.nativeOrder());
+    }
+
+    private static ByteBuffer grow(ByteBuffer old, int rows) {
+        ByteBuffer bigger = column(rows);
+        bigger.put(old.duplicate().clear());
+        return bigger;
+    }
+
+    // interned strings in an off-heap utf-8 arena, ids are dense and assigned in insertion order
+    //
+    //   arena    [int length][bytes] per string
+    //   offsets  int per id, position of the string in the arena
+    //   table    open-addressing slots holding id + 1, 0 = empty
+    private static class StringDictionary {
+
+        private ByteBuffer arena = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.nativeOrder());
+        private ByteBuffer offsets = column(INITIAL_ROWS);
+        private ByteBuffer table = column(INITIAL_ROWS * 2);
+        private int arenaEnd;
+        private int count;
+
+        // id of the string, adding it first if it is new, caller holds the write lock
+        int intern(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            int slot = probe(bytes);
+            int existing = table.getInt(slot * 4);
+            if (existing != 0) {
+                return existing - 1;
+            }
+
+            // append to the arena
+            if (arenaEnd + 4 + bytes.length > arena.capacity()) {
+                int newSize = arena.capacity();
+                while (arenaEnd + 4 + bytes.length > newSize) {
+                    newSize *= 2;
+                }
+                ByteBuffer bigger = ByteBuffer.allocateDirect(newSize).order(ByteOrder.nativeOrder());
+                bigger.put(arena.duplicate().clear().limit(arenaEnd));
+                arena = bigger;
+            }
+            arena.putInt(arenaEnd, bytes.length);
+            arena.put(arenaEnd + 4, bytes);
+
+            int id = count++;
+            if (id * 4 >= offsets.capacity()) {
+                offsets = grow(offsets, offsets.capacity() / 4 * 2);
+            }
+            offsets.putInt(id * 4, arenaEnd);
+            arenaEnd += 4 + bytes.length;
+
+            table.putInt(slot * 4, id + 1);
+            if (count * 2 > table.capacity() / 4) {
+                rehash();
+            }
+            return id;
+        }
+
+        // id of the string or -1
+        int find(String value) {
+            int existing = table.getInt(probe(value.getBytes(StandardCharsets.UTF_8)) * 4);
+            return existing - 1;
+        }
+
+        String get(int id) {
+            int offset = offsets.getInt(id * 4);
+            byte[] bytes = new byte[arena.getInt(offset)];
+            arena.get(offset + 4, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        long offHeapBytes() {
+            return arena.capacity() + offsets.capacity() + table.capacity();
+        }
+
+        // slot holding the string, or the empty slot where it belongs
+        private int probe(byte[] bytes) {
+            int mask = table.capacity() / 4 - 1;
+            int slot = hash(bytes) & mask;
+            while (true) {
+                int entry = table.getInt(slot * 4);
+                if (entry == 0 || matches(entry - 1, bytes)) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        private boolean matches(int id, byte[] bytes) {
+            int offset = offsets.getInt(id * 4);
+            if (arena.getInt(offset) != bytes.length) {
+                return false;
+            }
+            for (int i = 0; i < bytes.length; i++) {
+                if (arena.get(offset + 4 + i) != bytes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void rehash() {
+            table = column(table.capacity() / 4 * 2);
+            int mask = table.capacity() / 4 - 1;
+            for (int id = 0; id < count; id++) {
+                int offset = offsets.getInt(id * 4);
+                byte[] bytes = new byte[arena.getInt(offset)];
+                arena.get(offset + 4, bytes);
+                int slot = hash(bytes) & mask;
+                while (table.getInt(slot * 4) != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table.putInt(slot * 4, id + 1);
+            }
+        }
+
+        private static int hash(byte[] bytes) {
+            int h = 1;
+            for (byte b : bytes) {
+                h = 31 * h + b;
+            }
+            h *= 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package final_project;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// due dates of active rentals in hierarchical timing wheels, so finding what fell due costs time
+// in the rentals that did, not in every rental
+//
+//   shards    one wheel per HoldingsTable stripe, each with its own monitor; schedule and cancel run
+//             inside the student's stripe and only ever meet that stripe's shard, advance() and the
+//             listings visit the shards one after another
+//   ticks     due dates rounded up to whole minutes, current is the tick a shard was advanced to
+//   levels    LEVELS rings of 64 slots; an entry sits on the level of the highest base-64 digit in
+//             which its tick differs from current, in the slot of its own digit there; reaching the
+//             start of a slot moves its entries down a level, reaching their tick makes them overdue
+//   occupied  one bit per non-empty slot, advancing jumps straight to the next occupied slot
+//   overdue   entries past their tick, until the return cancels them
+//   table     the shard's entries by (student << 32 | isbn), chained through the entries themselves,
+//             so lookups box no keys and allocate no nodes
+//
+// entries are linked into their list in both directions, so cancelling one is O(1);
+// students and isbns are the int ids HoldingsTable hands out
+final class DueWheel {
+
+    static final long TICK_MILLIS = 60_000;
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int LEVELS = 5; // 2^30 minutes, ticks past that wait in the overflow list
+    private static final int OVERFLOW = LEVELS * SLOTS;
+    private static final int OVERDUE = OVERFLOW + 1;
+    private static final int INITIAL_BUCKETS = 16;
+
+    private final Shard[] shards = new Shard[HoldingsTable.STRIPES];
+
+    DueWheel(long nowMillis) {
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(Math.floorDiv(nowMillis, TICK_MILLIS));
+        }
+    }
+
+    // one student's due date for one isbn
+    static final class Entry {
+
+        final int student;
+        final int isbn;
+        final long dueAt;
+        private final long key;
+        private final long tick;
+        private int list;
+        private Entry prev;
+        private Entry next;
+        private Entry chained; // next entry in the same table bucket
+
+        private Entry(int student, int isbn, long dueAt) {
+            this.student = student;
+            this.isbn = isbn;
+            this.dueAt = dueAt;
+            this.key = key(student, isbn);
+            this.tick = Math.floorDiv(dueAt + TICK_MILLIS - 1, TICK_MILLIS);
+        }
+    }
+
+    // replaces any due date the pair already had, true when it is already overdue
+    boolean schedule(int student, int isbn, long dueAt) {
+        Shard shard = shard(student);
+        synchronized (shard) {
+            shard.cancel(key(student, isbn));
+            Entry entry = new Entry(student, isbn, dueAt);
+            shard.put(entry);
+            return shard.place(entry);
+        }
+    }
+
+    boolean cancel(int student, int isbn) {
+        Shard shard = shard(student);
+        synchronized (shard) {
+            return shard.cancel(key(student, isbn));
+        }
+    }
+
+    // 0 when the pair has no due date
+    long dueAt(int student, int isbn) {
+        Shard shard = shard(student);
+        synchronized (shard) {
+            Entry entry = shard.get(key(student, isbn));
+            return entry == null ? 0 : entry.dueAt;
+        }
+    }
+
+    // moves every shard to nowMillis, returns the entries that became overdue on the way
+    List<Entry> advance(long nowMillis) {
+        List<Entry> due = new ArrayList<>();
+        long target = Math.floorDiv(nowMillis, TICK_MILLIS);
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                shard.advance(target, due);
+            }
+        }
+        return due;
+    }
+
+    // every overdue entry, as of the last advance
+    List<Entry> overdue() {
+        List<Entry> result = new ArrayList<>();
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                for (Entry e = shard.heads[OVERDUE]; e != null; e = e.next) {
+                    result.add(e);
+                }
+            }
+        }
+        return result;
+    }
+
+    int overdueCount() {
+        int count = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                count += shard.overdueCount;
+            }
+        }
+        return count;
+    }
+
+    int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                size += shard.size;
+            }
+        }
+        return size;
+    }
+
+    private Shard shard(int student) {
+        return shards[HoldingsTable.stripe(student)];
+    }
+
+    // one stripe's wheel and entry table, every method runs under the shard's monitor
+    private static final class Shard {
+
+        // list heads: level * SLOTS + slot, then OVERFLOW and OVERDUE
+        private final Entry[] heads = new Entry[OVERDUE + 1];
+        private final long[] occupied = new long[LEVELS];
+        private Entry[] buckets = new Entry[INITIAL_BUCKETS];
+        private int size;
+        private long current;
+        private int overdueCount;
+
+        private Shard(long current) {
+            this.current = current;
+        }
+
+        private void advance(long target, List<Entry> due) {
+            while (current < target) {
+                long next = nextBoundary();
+                if (next > target) {
+                    current = target; // nothing starts before the target, no entry changes place
+                    break;
+                }
+                current = next;
+
+                // top down, so entries moved down a level are placed against the new current
+                if ((current & ((1L << (LEVELS * SLOT_BITS)) - 1)) == 0) {
+                    drain(OVERFLOW, due);
+                }
+                for (int level = LEVELS - 1; level >= 0; level--) {
+                    int shift = level * SLOT_BITS;
+                    if ((current & ((1L << shift) - 1)) == 0) {
+                        drain(level * SLOTS + digit(current, level), due);
+                    }
+                }
+            }
+        }
+
+        private Entry get(long key) {
+            for (Entry e = buckets[bucket(key, buckets.length)]; e != null; e = e.chained) {
+                if (e.key == key) {
+                    return e;
+                }
+            }
+            return null;
+        }
+
+        // caller has cancelled any entry with the same key
+        private void put(Entry entry) {
+            if (size >= buckets.length - (buckets.length >>> 2)) {
+                resize();
+            }
+            int b = bucket(entry.key, buckets.length);
+            entry.chained = buckets[b];
+            buckets[b] = entry;
+            size++;
+        }
+
+        private boolean cancel(long key) {
+            int b = bucket(key, buckets.length);
+            Entry before = null;
+            for (Entry e = buckets[b]; e != null; before = e, e = e.chained) {
+                if (e.key == key) {
+                    if (before == null) {
+                        buckets[b] = e.chained;
+                    }
+                    else {
+                        before.chained = e.chained;
+                    }
+                    e.chained = null;
+                    size--;
+                    unlink(e);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void resize() {
+            Entry[] bigger = new Entry[buckets.length * 2];
+            for (Entry head : buckets) {
+                Entry e = head;
+                while (e != null) {
+                    Entry next = e.chained;
+                    int b = bucket(e.key, bigger.length);
+                    e.chained = bigger[b];
+                    bigger[b] = e;
+                    e = next;
+                }
+            }
+            buckets = bigger;
+        }
+
+        // the earliest tick at which some slot starts, Long.MAX_VALUE when the wheel is empty
+        private long nextBoundary() {
+            long next = Long.MAX_VALUE;
+            for (int level = 0; level < LEVELS; level++) {
+                int digit = digit(current, level);
+                long later = digit == SLOTS - 1 ? 0 : occupied[level] & (-1L << (digit + 1));
+                if (later != 0) {
+                    int shift = level * SLOT_BITS;
+                    long block = current >>> (shift + SLOT_BITS) << (shift + SLOT_BITS);
+                    next = Math.min(next, block | ((long) Long.numberOfTrailingZeros(later) << shift));
+                }
+            }
+            if (heads[OVERFLOW] != null) {
+                int shift = LEVELS * SLOT_BITS;
+                next = Math.min(next, ((current >>> shift) + 1) << shift);
+            }
+            return next;
+        }
+
+        // places the entries of one list again, the ones that reach overdue are added to due
+        private void drain(int list, List<Entry> due) {
+            Entry e = heads[list];
+            heads[list] = null;
+            if (list < OVERFLOW) {
+                occupied[list / SLOTS] &= ~(1L << (list % SLOTS));
+            }
+            while (e != null) {
+                Entry next = e.next;
+                if (place(e)) {
+                    due.add(e);
+                }
+                e = next;
+            }
+        }
+
+        // links the entry where its tick puts it, true when that is the overdue list
+        private boolean place(Entry entry) {
+            if (entry.tick <= current) {
+                link(entry, OVERDUE);
+                overdueCount++;
+                return true;
+            }
+            int level = (63 - Long.numberOfLeadingZeros(entry.tick ^ current)) / SLOT_BITS;
+            if (level >= LEVELS) {
+                link(entry, OVERFLOW);
+                return false;
+            }
+            int slot = digit(entry.tick, level);
+            link(entry, level * SLOTS + slot);
+            occupied[level] |= 1L << slot;
+            return false;
+        }
+
+        private void link(Entry entry, int list) {
+            entry.list = list;
+            entry.prev = null;
+            entry.next = heads[list];
+            if (entry.next != null) {
+                entry.next.prev = entry;
+            }
+            heads[list] = entry;
+        }
+
+        private void unlink(Entry entry) {
+            if (entry.prev != null) {
+                entry.prev.next = entry.next;
+            }
+            else {
+                heads[entry.list] = entry.next;
+            }
+            if (entry.next != null) {
+                entry.next.prev = entry.prev;
+            }
+            if (entry.list == OVERDUE) {
+                overdueCount--;
+            }
+            else if (entry.list < OVERFLOW && heads[entry.list] == null) {
+                occupied[entry.list / SLOTS] &= ~(1L << (entry.list % SLOTS));
+            }
+            entry.prev = null;
+            entry.next = null;
+        }
+    }
+
+    private static int digit(long tick, int level) {
+        return (int) (tick >>> (level * SLOT_BITS)) & (SLOTS - 1);
+    }
+
+    private static long key(int student, int isbn) {
+        return (long) student << 32 | (isbn & 0xFFFFFFFFL);
+    }
+
+    // students of one stripe differ in their high bits, so those are mixed into the bucket
+    private static int bucket(long key, int buckets) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & (buckets - 1);
+    }
+}
@@ -0,0 +1,8 @@
+package final_project;
+
+// when rental events are fsynced to disk by the RentalCommitter
+public enum DurabilityPolicy {
+    NONE,     // written to the OS, never forced
+    BATCH,    // forced once per group-commit batch
+    INTERVAL  // forced at most once per interval, futures wait for that force
+}
@@ -0,0 +1,46 @@
+package final_project;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+// where LibraryService keeps rental events, FileEventStore writes one log per student and
+// SegmentedEventLog one shared log; records are always in the StudentFileLog.encode layout
+//
+// positions are opaque per store, they only have to grow with every record written for a student
+public interface EventStore extends Closeable {
+
+    // append one or more encoded records to the student's history, durable after force()
+    void write(String studentId, byte[] records) throws IOException;
+
+    // make everything written for the student durable
+    void force(String studentId) throws IOException;
+
+    // position just past the last record written for the student, 0 when there is none
+    long position(String studentId) throws IOException;
+
+    // whether position still points into the student's history, a checkpoint taken before a
+    // compaction does not
+    boolean contains(String studentId, long position) throws IOException;
+
+    // type, isbn and extra field of every record written at or after position, oldest first; a position
+    // the history does not contain replays all of it
+    void replay(String studentId, long position, ReplaySink sink) throws IOException;
+
+    // archive the student's events older than cutoffMillis behind a summary of the holdings they
+    // leave, false when there was nothing worth archiving or the store does not support it
+    default boolean compact(String studentId, long cutoffMillis) throws IOException {
+        return false;
+    }
+
+    // the student's events for display
+    StudentHistory history(String studentId);
+
+    @Override
+    void close();
+
+    // what replay hands out per record, extra is a RENT's due date or a HOLD's ticket, 0 when the
+    // record carries neither
+    interface ReplaySink {
+        void accept(EventType type, String isbn, long extra);
+    }
+}
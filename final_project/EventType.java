@@ -2,5 +2,7 @@ package final_project;
 
 public enum EventType {
     RENT, 
-    RETURN
+    RETURN,
+    HOLD,       // student joins the isbn's queue, a later RENT of the isbn ends the hold
+    CANCEL_HOLD
 }
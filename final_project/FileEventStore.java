@@ -0,0 +1,232 @@
+package final_project;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+// one logs/<studentId>.bin per student, positions are the compaction epoch << 48 | byte offset into that file
+public class FileEventStore implements EventStore {
+
+    // fewer old records than this are left in the live log, an archive per handful of records is not worth it
+    static final int ARCHIVE_MIN_RECORDS = 256;
+
+    private static final long OFFSET_MASK = (1L << 48) - 1;
+
+    private final Path logsDir;
+    private final StudentLogWriters writers;
+
+    // default constructor
+    public FileEventStore(Path logsDir) {
+        this.logsDir = logsDir;
+        this.writers = new StudentLogWriters(logsDir);
+    }
+
+    @Override
+    public void write(String studentId, byte[] records) throws IOException {
+        writers.write(studentId, records);
+    }
+
+    @Override
+    public void force(String studentId) throws IOException {
+        writers.force(studentId);
+    }
+
+    @Override
+    public long position(String studentId) throws IOException {
+        Path logFile = logFile(studentId);
+        if (!Files.exists(logFile)) {
+            return 0;
+        }
+        try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.READ)) {
+            return StudentFileLog.readHeader(channel).epoch << 48 | channel.size();
+        }
+    }
+
+    // a position from before the last compaction points into a file that no longer exists
+    @Override
+    public boolean contains(String studentId, long position) throws IOException {
+        Path logFile = logFile(studentId);
+        if (!Files.exists(logFile)) {
+            return position == 0;
+        }
+        try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.READ)) {
+            StudentFileLog.Header header = StudentFileLog.readHeader(channel);
+            long offset = position & OFFSET_MASK;
+            return position >>> 48 == header.epoch && offset >= header.end && offset <= channel.size();
+        }
+    }
+
+    // a position this log does not contain replays everything: the compacted holdings as RENT events and
+    // waiting holds as HOLD events, then the live records
+    @Override
+    public void replay(String studentId, long position, ReplaySink sink) throws IOException {
+        Path logFile = logFile(studentId);
+        if (!Files.exists(logFile)) {
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.READ)) {
+            StudentFileLog.Header header = StudentFileLog.readHeader(channel);
+            long offset = position & OFFSET_MASK;
+            if (position >>> 48 != header.epoch || offset < header.end || offset > channel.size()) {
+                for (Map.Entry<String, Long> holding : header.holdings.entrySet()) {
+                    sink.accept(EventType.RENT, holding.getKey(), holding.getValue());
+                }
+                for (Map.Entry<String, Long> hold : header.holds.entrySet()) {
+                    sink.accept(EventType.HOLD, hold.getKey(), hold.getValue());
+                }
+                offset = header.end;
+            }
+
+            channel.position(offset); // skip everything the caller already has
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+
+            while (true) {
+                try {
+                    in.readLong(); // timestamp
+                    int code = in.readUnsignedByte(); // enum type
+                    long extra = (code & StudentFileLog.EXTRA_FLAG) != 0 ? in.readLong() : 0; // due date or ticket
+                    String isbn = in.readUTF(); // isbn
+                    in.skipBytes(in.readUnsignedShort()); // title is not needed, skip without decoding
+                    sink.accept(EventType.values()[code & ~StudentFileLog.EXTRA_FLAG], isbn, extra);
+                }
+                catch (EOFException eof) {
+                    break;
+                }
+            }
+        }
+    }
+
+    // moves the records older than cutoffMillis into logs/<id>.<epoch>.gz and starts the live log with the
+    // holdings and waiting holds they leave behind; appends keep going to the old file until the final swap, which only
+    // holds this student's writer while it copies the records appended meanwhile
+    @Override
+    public synchronized boolean compact(String studentId, long cutoffMillis) throws IOException {
+        Path logFile = logFile(studentId);
+        if (!Files.exists(logFile)) {
+            return false;
+        }
+
+        Path archive;
+        Path temp = logsDir.resolve(studentId + ".bin.tmp");
+        long end;
+
+        try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.READ)) {
+            StudentFileLog.Header header = StudentFileLog.readHeader(channel);
+            end = channel.size();
+
+            // old records up to the cut, their events applied to the holdings
+            Map<String, Long> holdings = new LinkedHashMap<>(header.holdings);
+            Map<String, Long> holds = new LinkedHashMap<>(header.holds);
+            long cut = header.end;
+            int count = 0;
+            channel.position(cut);
+            CountingInputStream counter = new CountingInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            DataInputStream in = new DataInputStream(counter);
+            while (true) {
+                LogEntry entry;
+                try {
+                    entry = StudentFileLog.readRecord(in);
+                }
+                catch (EOFException eof) {
+                    break;
+                }
+                if (entry.getTimestamp() >= cutoffMillis || header.end + counter.getCount() > end) {
+                    break; // new enough to stay, or still being written
+                }
+                switch (entry.getType()) {
+                    case RENT:
+                        holdings.put(entry.getIsbn(), entry.getDueAt());
+                        holds.remove(entry.getIsbn()); // the hold was served
+                        break;
+                    case RETURN:
+                        holdings.remove(entry.getIsbn());
+                        break;
+                    case HOLD:
+                        holds.put(entry.getIsbn(), entry.getTicket());
+                        break;
+                    case CANCEL_HOLD:
+                        holds.remove(entry.getIsbn());
+                        break;
+                }
+                cut = header.end + counter.getCount();
+                count++;
+            }
+            if (count < ARCHIVE_MIN_RECORDS) {
+                return false;
+            }
+
+            // archive first, a crash before the swap only leaves an archive no header refers to yet
+            long epoch = header.epoch + 1;
+            archive = StudentFileLog.archiveFile(logsDir, studentId, epoch);
+            Path archiveTemp = archive.resolveSibling(archive.getFileName() + ".tmp");
+            try (FileOutputStream file = new FileOutputStream(archiveTemp.toFile());
+                 GZIPOutputStream gzip = new GZIPOutputStream(new BufferedOutputStream(file))) {
+                DataOutputStream out = new DataOutputStream(gzip);
+                out.writeInt(count);
+                copy(channel, header.end, cut, out);
+                gzip.finish();
+                gzip.flush();
+                file.getFD().sync();
+            }
+            Files.move(archiveTemp, archive, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            // the new live log up to the size seen above
+            try (FileOutputStream file = new FileOutputStream(temp.toFile());
+                 OutputStream out = new BufferedOutputStream(file)) {
+                out.write(StudentFileLog.encodeHeader(epoch, header.archived + count, holdings, holds));
+                copy(channel, cut, end, out);
+            }
+        }
+
+        // whatever was appended since, then the swap; the writer reopens the new file on its next write
+        writers.exclusive(studentId, () -> {
+            try (FileChannel source = FileChannel.open(logFile, StandardOpenOption.READ);
+                 FileOutputStream file = new FileOutputStream(temp.toFile(), true)) {
+                OutputStream out = new BufferedOutputStream(file);
+                copy(source, end, source.size(), out);
+                out.flush();
+                file.getFD().sync();
+            }
+            Files.move(temp, logFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        });
+        return true;
+    }
+
+    @Override
+    public StudentHistory history(String studentId) {
+        return new StudentFileLog(logsDir, studentId);
+    }
+
+    @Override
+    public void close() {
+        writers.close();
+    }
+
+    private Path logFile(String studentId) {
+        return logsDir.resolve(studentId + ".bin");
+    }
+
+    // bytes [from, to) of the channel
+    private static void copy(FileChannel channel, long from, long to, OutputStream out) throws IOException {
+        channel.position(from);
+        InputStream in = Channels.newInputStream(channel);
+        byte[] buffer = new byte[8192];
+        long remaining = to - from;
+        while (remaining > 0) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (n < 0) {
+                throw new EOFException("Log ended before " + to);
+            }
+            out.write(buffer, 0, n);
+            remaining -= n;
+        }
+    }
+}
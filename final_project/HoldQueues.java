@@ -0,0 +1,146 @@
+package final_project;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// per-isbn FIFO queues of students waiting for a copy
+//
+// an isbn's lock is the monitor that every rent, return and hold of the isbn takes before any student
+// stripe, so a copy freed while students wait can only go to the first of them; several locks are
+// always taken in ascending stripe order. the locks are fixed, queues come and go beneath them
+//
+//   locks      isbn hash & (LOCKS - 1) -> monitor, held around every method taking an isbn
+//   queues     isbn -> queue, only while someone waits; the hold that finds none creates it and the
+//              removal that empties it drops it, so reads for an isbn nobody waits for find nothing
+//   byTicket   ticket -> student id, the queue's order; tickets only grow and are logged with the
+//              HOLD, so recovery puts the queue back in the same order
+//   byStudent  student id -> ticket, for duplicate checks and cancelling
+final class HoldQueues {
+
+    private static final int LOCKS = 256;
+
+    private final Object[] locks = new Object[LOCKS];
+    private final ConcurrentHashMap<String, Queue> queues = new ConcurrentHashMap<>();
+    private final AtomicLong nextTicket = new AtomicLong(1);
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    // default constructor
+    HoldQueues() {
+        for (int i = 0; i < LOCKS; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    // one isbn's waiting students, never empty while it is in the map
+    private static final class Queue {
+
+        private final TreeMap<Long, Integer> byTicket = new TreeMap<>();
+        private final Map<Integer, Long> byStudent = new HashMap<>();
+    }
+
+    // monitor that guards the isbn's queue
+    Object lock(String isbn) {
+        return locks[stripe(isbn)];
+    }
+
+    // the locks of the isbns, each once, in the order they have to be taken in
+    List<Object> locks(Collection<String> isbns) {
+        TreeSet<Integer> stripes = new TreeSet<>();
+        for (String isbn : isbns) {
+            stripes.add(stripe(isbn));
+        }
+        List<Object> result = new ArrayList<>(stripes.size());
+        for (int stripe : stripes) {
+            result.add(locks[stripe]);
+        }
+        return result;
+    }
+
+    // caller holds lock(isbn)
+    boolean hasWaiters(String isbn) {
+        return queues.get(isbn) != null;
+    }
+
+    // caller holds lock(isbn)
+    boolean contains(String isbn, int student) {
+        Queue queue = queues.get(isbn);
+        return queue != null && queue.byStudent.containsKey(student);
+    }
+
+    // queues the student at the back, returns the ticket; caller holds lock(isbn)
+    long add(String isbn, int student) {
+        long ticket = nextTicket.getAndIncrement();
+        put(isbn, student, ticket);
+        return ticket;
+    }
+
+    // the ticket the student waited with, 0 when they were not queued; caller holds lock(isbn)
+    long remove(String isbn, int student) {
+        Queue queue = queues.get(isbn);
+        Long ticket = queue == null ? null : queue.byStudent.remove(student);
+        if (ticket == null) {
+            return 0;
+        }
+        queue.byTicket.remove(ticket);
+        waiting.decrementAndGet();
+        // dropped only if still empty, whatever else reaches the map meanwhile is not lost
+        queues.computeIfPresent(isbn, (i, q) -> q.byTicket.isEmpty() ? null : q);
+        return ticket;
+    }
+
+    // first waiting student, -1 when nobody waits; caller holds lock(isbn)
+    int poll(String isbn) {
+        Queue queue = queues.get(isbn);
+        if (queue == null) {
+            return -1;
+        }
+        int student = queue.byTicket.firstEntry().getValue();
+        remove(isbn, student);
+        return student;
+    }
+
+    // waiting students, first in line first; caller holds lock(isbn)
+    List<Integer> students(String isbn) {
+        Queue queue = queues.get(isbn);
+        return queue == null ? new ArrayList<>() : new ArrayList<>(queue.byTicket.values());
+    }
+
+    // puts a hold read back from the logs into its place in the queue
+    void restore(String isbn, int student, long ticket) {
+        synchronized (lock(isbn)) {
+            put(isbn, student, ticket);
+        }
+        nextTicket.accumulateAndGet(ticket + 1, Math::max);
+    }
+
+    // holds waiting over all isbns
+    int waiting() {
+        return waiting.get();
+    }
+
+    // caller holds lock(isbn)
+    private void put(String isbn, int student, long ticket) {
+        Queue queue = queues.computeIfAbsent(isbn, i -> new Queue());
+        Long previous = queue.byStudent.put(student, ticket);
+        if (previous != null) {
+            queue.byTicket.remove(previous);
+        }
+        else {
+            waiting.incrementAndGet();
+        }
+        queue.byTicket.put(ticket, student);
+    }
+
+    private static int stripe(String isbn) {
+        int h = isbn.hashCode();
+        return (h ^ (h >>> 16)) & (LOCKS - 1);
+    }
+}
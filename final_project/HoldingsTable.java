@@ -0,0 +1,260 @@
+package final_project;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// which isbns every student currently holds, and who holds each isbn, in primitive form: students
+// and isbns are interned to int ids, each student's holdings are one small int[] of isbn ids and
+// each isbn's holders one int[] of student ids, null when empty
+//
+//   byStudent  student id -> int[] of isbn ids, replaced as a whole on every change
+//   byIsbn     isbn id -> int[] of student ids, replaced with compare-and-set since holders of one
+//              isbn sit in different stripes
+//   stripes    student id & (STRIPES - 1) -> monitor, writers hold it and change both sides inside
+//              it, readers never need it
+public class HoldingsTable {
+
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+    private static final int MAX_CHUNKS = 1 << 15; // 134M students or isbns
+    static final int STRIPES = 64; // DueWheel keeps one shard per stripe
+
+    private static final int[] NONE = new int[0];
+
+    private final IdInterner students = new IdInterner();
+    private final IdInterner isbns = new IdInterner();
+    private final ChunkedArrays byStudent = new ChunkedArrays();
+    private final ChunkedArrays byIsbn = new ChunkedArrays();
+    private final Object[] stripes = new Object[STRIPES];
+
+    private final AtomicInteger holdingStudents = new AtomicInteger();
+    private final AtomicLong total = new AtomicLong();
+
+    // default constructor
+    public HoldingsTable() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+    }
+
+    // the student's id in this table, assigned on first use
+    public int student(String studentId) {
+        return students.intern(studentId);
+    }
+
+    public String studentId(int student) {
+        return students.name(student);
+    }
+
+    // the isbn's id in this table, assigned on first use
+    public int isbnId(String isbn) {
+        return isbns.intern(isbn);
+    }
+
+    public String isbn(int isbn) {
+        return isbns.name(isbn);
+    }
+
+    // monitor that guards the student's holdings; holding it makes a check and a change one step
+    public Object lock(int student) {
+        return stripes[student & (STRIPES - 1)];
+    }
+
+    // stripe number of the monitor, callers that need several take them in ascending stripe order
+    public static int stripe(int student) {
+        return student & (STRIPES - 1);
+    }
+
+    public boolean holds(int student, String isbn) {
+        int id = isbns.find(isbn);
+        return id >= 0 && indexOf(get(student), id) >= 0;
+    }
+
+    // caller holds lock(student), false when the student already holds the isbn
+    public boolean add(int student, String isbn) {
+        int id = isbns.intern(isbn);
+        int[] held = get(student);
+        if (indexOf(held, id) >= 0) {
+            return false;
+        }
+        byStudent.set(student, with(held, id));
+        addHolder(id, student);
+        if (held.length == 0) {
+            holdingStudents.incrementAndGet();
+        }
+        total.incrementAndGet();
+        return true;
+    }
+
+    // caller holds lock(student), false when the student does not hold the isbn
+    public boolean remove(int student, String isbn) {
+        int id = isbns.find(isbn);
+        int[] held = get(student);
+        int at = id < 0 ? -1 : indexOf(held, id);
+        if (at < 0) {
+            return false;
+        }
+        byStudent.set(student, without(held, at));
+        removeHolder(id, student);
+        if (held.length == 1) {
+            holdingStudents.decrementAndGet();
+        }
+        total.decrementAndGet();
+        return true;
+    }
+
+    // caller holds lock(student), used when recovery rebuilds a student's holdings
+    public void replace(int student, Collection<String> held) {
+        int[] before = get(student);
+        int[] after = new int[held.size()];
+        int n = 0;
+        for (String isbn : held) {
+            after[n++] = isbns.intern(isbn);
+        }
+        byStudent.set(student, n == 0 ? null : after);
+        for (int id : before) {
+            removeHolder(id, student);
+        }
+        for (int id : after) {
+            addHolder(id, student);
+        }
+        if (before.length == 0 && n > 0) {
+            holdingStudents.incrementAndGet();
+        }
+        else if (before.length > 0 && n == 0) {
+            holdingStudents.decrementAndGet();
+        }
+        total.addAndGet(n - before.length);
+    }
+
+    // isbns the student holds, a consistent view without taking the lock
+    public List<String> holdings(int student) {
+        int[] held = get(student);
+        List<String> result = new ArrayList<>(held.length);
+        for (int id : held) {
+            result.add(isbns.name(id));
+        }
+        return result;
+    }
+
+    // students holding the isbn, read from the reverse side in O(holders)
+    public List<String> holders(String isbn) {
+        int id = isbns.find(isbn);
+        int[] holders = id < 0 ? NONE : byIsbn.get(id);
+        List<String> result = new ArrayList<>(holders.length);
+        for (int student : holders) {
+            result.add(students.name(student));
+        }
+        return result;
+    }
+
+    public int holderCount(String isbn) {
+        int id = isbns.find(isbn);
+        return id < 0 ? 0 : byIsbn.get(id).length;
+    }
+
+    // student ids handed out so far, every id below this can be passed to the other methods
+    public int studentCount() {
+        return students.size();
+    }
+
+    // students holding at least one book
+    public int students() {
+        return holdingStudents.get();
+    }
+
+    // books held over all students
+    public long size() {
+        return total.get();
+    }
+
+    private int[] get(int student) {
+        return byStudent.get(student);
+    }
+
+    // the student's own stripe is held, other stripes may change the same isbn at the same time
+    private void addHolder(int isbn, int student) {
+        while (true) {
+            int[] holders = byIsbn.get(isbn);
+            if (byIsbn.compareAndSet(isbn, holders, with(holders, student))) {
+                return;
+            }
+        }
+    }
+
+    private void removeHolder(int isbn, int student) {
+        while (true) {
+            int[] holders = byIsbn.get(isbn);
+            int at = indexOf(holders, student);
+            if (at < 0 || byIsbn.compareAndSet(isbn, holders, without(holders, at))) {
+                return;
+            }
+        }
+    }
+
+    private static int[] with(int[] values, int value) {
+        int[] grown = new int[values.length + 1];
+        System.arraycopy(values, 0, grown, 0, values.length);
+        grown[values.length] = value;
+        return grown;
+    }
+
+    // null once the last one is gone, so empty entries take no array
+    private static int[] without(int[] values, int at) {
+        if (values.length == 1) {
+            return null;
+        }
+        int[] shrunk = new int[values.length - 1];
+        System.arraycopy(values, 0, shrunk, 0, at);
+        System.arraycopy(values, at + 1, shrunk, at, values.length - at - 1);
+        return shrunk;
+    }
+
+    private static int indexOf(int[] held, int id) {
+        for (int i = 0; i < held.length; i++) {
+            if (held[i] == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // int[] per id in chunks of 1 << CHUNK_BITS, a chunk is allocated the first time one of its ids is set
+    private static class ChunkedArrays {
+
+        private final AtomicReferenceArray<AtomicReferenceArray<int[]>> chunks = new AtomicReferenceArray<>(MAX_CHUNKS);
+
+        // never null, NONE stands in for an empty entry
+        int[] get(int id) {
+            AtomicReferenceArray<int[]> chunk = chunks.get(id >>> CHUNK_BITS);
+            if (chunk == null) {
+                return NONE;
+            }
+            int[] values = chunk.get(id & CHUNK_MASK);
+            return values == null ? NONE : values;
+        }
+
+        void set(int id, int[] values) {
+            chunk(id).set(id & CHUNK_MASK, values);
+        }
+
+        // expected is what get() returned, NONE matching an empty entry
+        boolean compareAndSet(int id, int[] expected, int[] values) {
+            return chunk(id).compareAndSet(id & CHUNK_MASK, expected == NONE ? null : expected, values);
+        }
+
+        private AtomicReferenceArray<int[]> chunk(int id) {
+            int c = id >>> CHUNK_BITS;
+            AtomicReferenceArray<int[]> chunk = chunks.get(c);
+            if (chunk == null) {
+                chunks.compareAndSet(c, null, new AtomicReferenceArray<>(1 << CHUNK_BITS));
+                chunk = chunks.get(c);
+            }
+            return chunk;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package final_project;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+// dense int ids for strings, assigned in first-seen order and never reused
+//
+// open addressing over int slots (id + 1, 0 = empty) instead of a map of boxed Integers, about
+// 12 bytes per string; the table keeps a reference to the string it was given, not a copy, so
+// ids that already live in the registry or the catalog cost nothing more
+//
+// lookups take no lock: a slot is set only after its name is stored, and growth publishes a
+// complete new table, a reader still on the old one at worst misses an id added meanwhile
+class IdInterner {
+
+    private volatile Table table = new Table(1024, new String[512]);
+    private int count; // guarded by this
+
+    int intern(String value) {
+        int id = table.find(value);
+        if (id >= 0) {
+            return id;
+        }
+        synchronized (this) {
+            Table current = table;
+            id = current.find(value);
+            if (id >= 0) {
+                return id;
+            }
+
+            id = count;
+            if (id == current.names.length) {
+                current = current.grow();
+                table = current;
+            }
+            current.names[id] = value;
+            current.slots.set(current.probe(value), id + 1); // after the name, see above
+            count = id + 1;
+            return id;
+        }
+    }
+
+    // id of the string or -1 when it was never interned
+    int find(String value) {
+        return table.find(value);
+    }
+
+    String name(int id) {
+        return table.names[id];
+    }
+
+    synchronized int size() {
+        return count;
+    }
+
+    // slots are twice the names, so probes stay short
+    private static class Table {
+
+        private final AtomicIntegerArray slots;
+        private final String[] names;
+
+        Table(int capacity, String[] names) {
+            this.slots = new AtomicIntegerArray(capacity);
+            this.names = names;
+        }
+
+        int find(String value) {
+            int mask = slots.length() - 1;
+            for (int slot = hash(value) & mask; ; slot = (slot + 1) & mask) {
+                int entry = slots.get(slot);
+                if (entry == 0) {
+                    return -1;
+                }
+                if (names[entry - 1].equals(value)) {
+                    return entry - 1;
+                }
+            }
+        }
+
+        // empty slot where the value belongs, caller knows it is not present
+        int probe(String value) {
+            int mask = slots.length() - 1;
+            int slot = hash(value) & mask;
+            while (slots.get(slot) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        Table grow() {
+            Table bigger = new Table(slots.length() * 2, Arrays.copyOf(names, names.length * 2));
+            for (int id = 0; id < names.length; id++) {
+                bigger.slots.set(bigger.probe(names[id]), id + 1);
+            }
+            return bigger;
+        }
+
+        private static int hash(String value) {
+            int h = value.hashCode() * 0x9E3779B9; // spread the bits before masking
+            return h ^ (h >>> 16);
+        }
+    }
+}
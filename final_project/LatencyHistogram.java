@@ -0,0 +1,105 @@
+package final_project;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// log-linear latency histogram, each power of two is split into 32 buckets so any recorded value
+// is reported within about 3% of itself
+//
+// recording touches one atomic slot and allocates nothing, any number of threads may record at once
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    // one sample, usually nanoseconds, negative values count as 0
+    public void record(long value) {
+        long v = Math.max(0, value);
+        counts.incrementAndGet(bucket(v));
+        total.increment();
+        sum.add(v);
+        max.accumulate(v);
+    }
+
+    public long count() {
+        return total.sum();
+    }
+
+    public double mean() {
+        long n = total.sum();
+        return n == 0 ? 0 : sum.sum() / (double) n;
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    // upper edge of the bucket holding the given percentile (0-100), 0 when nothing was recorded
+    public long percentile(double percentile) {
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            n += counts.get(i);
+        }
+        if (n == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(n * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    // adds another histogram's samples to this one
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = other.counts.get(i);
+            if (c != 0) {
+                counts.addAndGet(i, c);
+            }
+        }
+        total.add(other.total.sum());
+        sum.add(other.sum.sum());
+        max.accumulate(other.max.get());
+    }
+
+    // not atomic with concurrent records, a sample racing with it may land on either side
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        total.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    // values below 64 get a bucket each, above that the top 6 bits pick the bucket
+    private static int bucket(long v) {
+        if (v < 2 * SUB_COUNT) {
+            return (int) v;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+        return (shift + 1) * SUB_COUNT + (int) ((v >>> shift) & (SUB_COUNT - 1));
+    }
+
+    private static long upperBound(int bucket) {
+        if (bucket < 2 * SUB_COUNT) {
+            return bucket;
+        }
+        int shift = bucket / SUB_COUNT - 1;
+        long lower = (long) (SUB_COUNT + bucket % SUB_COUNT) << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
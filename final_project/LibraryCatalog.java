@@ -3,96 +3,412 @@ package final_project;
 import java.io.*;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class LibraryCatalog {
 
+    // RecordFile header of catalog.dat
+    private static final int MAGIC = 0x424F4F4B; // "BOOK"
+    private static final short VERSION = 1;
+
+    // journal size that triggers a background snapshot
+    private static final long COMPACT_THRESHOLD = 10_000;
+    private static final long COMPACT_INTERVAL_SECONDS = 30;
+
     private final Path snapshot;
-    private final Map<String, Book> byIsbn = new HashMap<>();
-    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final CatalogJournal journal;
+    // lookups never lock, add() serializes writers of the same isbn through the map's own bin lock
+    private final Map<String, Book> byIsbn = new ConcurrentHashMap<>();
+    private final TitleIndex titleIndex = new TitleIndex(); // kept in step with byIsbn by load() and add()
+
+    // what all() hands out, rebuilt only after load() or add() changed the set of books
+    private final PublishedList<Book> books = new PublishedList<>(byIsbn::values);
+
+    // added books and copy count changes, published after each successful change
+    private final ChangeFeed<BookChange> changes = new ChangeFeed<>();
+
+    // mutations hold the read side so they run together; load() and the start of a snapshot hold the
+    // write side, so the copied counts and the rotated journal always describe the same state
+    private final ReadWriteLock journalLock = new ReentrantReadWriteLock();
+    private final Object saveLock = new Object(); // one snapshot written at a time
+    private final ScheduledExecutorService compactor;
+    private final LatencyHistogram saveLatency;
+
+    // the counts again in columns with CatalogBackend.COLUMNAR, null with HEAP; rebuilt by load(),
+    // every successful checkout and checkin applies its delta to it
+    private volatile ColumnarCatalog columns;
 
     public LibraryCatalog(Path baseDir) {
+        this(baseDir, new LatencyHistogram());
+    }
+
+    // saveLatency receives the duration of every snapshot, e.g. LibraryMetrics' histogram
+    public LibraryCatalog(Path baseDir, LatencyHistogram saveLatency) {
+        this(baseDir, saveLatency, CatalogBackend.HEAP);
+    }
+
+    public LibraryCatalog(Path baseDir, LatencyHistogram saveLatency, CatalogBackend backend) {
         // create the catalog file directory
         this.snapshot = baseDir.resolve("catalog.dat");
+        this.saveLatency = saveLatency;
+        this.columns = backend == CatalogBackend.COLUMNAR ? new ColumnarCatalog() : null;
+        this.journal = new CatalogJournal(baseDir.resolve("catalog.journal"));
+
+        // single daemon thread that folds the journal back into the snapshot
+        this.compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "catalog-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+        this.compactor.scheduleWithFixedDelay(this::compactIfNeeded,
+                COMPACT_INTERVAL_SECONDS, COMPACT_INTERVAL_SECONDS, TimeUnit.SECONDS);
     }
 
     public void load() throws IOException, ClassNotFoundException {
-        lock.writeLock().lock(); // lock the output access
+        boolean legacy = false;
+
+        journalLock.writeLock().lock(); // no mutation while the books are replaced
         try {
             // clear the isbn hashmap since it could result in duplicates
             byIsbn.clear();
-            // check if the file doesn't exist
-            if (!Files.exists(snapshot)) {
-                return;
-            }
-            // binary input using objectinputstream
-            try (ObjectInputStream inputStream = new ObjectInputStream(Files.newInputStream(snapshot))) {
-                Object obj = inputStream.readObject();
-
-                // check if the object is a list
-                if (obj instanceof List<?> list) {
-                    // iterate through all objects in the list
-                    for (Object listObject : list) {
-                        // check if the object is a book
-                        if (listObject instanceof Book) {
-                            Book b = (Book)listObject; // cast as book
-                            byIsbn.put(b.getIsbn(), b); // add to the hashmap
-                        }
+            books.invalidate();
+            // check if the snapshot exists
+            if (Files.exists(snapshot)) {
+                if (RecordFile.isLegacy(snapshot)) {
+                    // objectoutputstream snapshot from before the record format
+                    legacy = true;
+                    for (Book b : SnapshotMigrator.readLegacy(snapshot, Book.class)) {
+                        byIsbn.put(b.getIsbn(), b); // add to the hashmap
                     }
                 }
+                else {
+                    // streamed straight into the hashmap, one record at a time
+                    RecordFile.read(snapshot, MAGIC, VERSION, LibraryCatalog::readBook, b -> byIsbn.put(b.getIsbn(), b));
+                }
+            }
+
+            // apply every change made since the snapshot was written
+            journal.replay(byIsbn);
+
+            // rebuild the title search index from the loaded books
+            titleIndex.clear();
+            for (Book b : byIsbn.values()) {
+                titleIndex.add(b);
+            }
+            if (columns != null) {
+                columns = ColumnarCatalog.from(byIsbn.values());
             }
         } 
         finally {
-            lock.writeLock().unlock(); // unlock output access
+            journalLock.writeLock().unlock();
+        }
+
+        changed(ChangeKind.RELOADED, null);
+
+        if (legacy) {
+            // one-time migration, the old file is kept as catalog.dat.v0
+            SnapshotMigrator.backupLegacy(snapshot);
+            save();
         }
     }
 
+    // writes a full snapshot and drops the journal entries it contains; mutations only pause while
+    // the counts are copied in memory, the disk write runs beside them
     public void save() throws IOException {
-        lock.readLock().lock(); // lock input access
-        try {
-            // create directories
-            Files.createDirectories(snapshot.getParent());
+        long start = System.nanoTime();
+        synchronized (saveLock) {
+            try {
+                List<Book> copies = new ArrayList<>(byIsbn.size());
+                journalLock.writeLock().lock(); // no mutation may land between the copy and the rotation
+                try {
+                    for (Book b : byIsbn.values()) {
+                        copies.add(new Book(b.getIsbn(), b.getTitle(), b.getTotalCopies(), b.getCheckedOut()));
+                    }
+                    journal.rotate(); // entries from now on go to a fresh journal
+                }
+                finally {
+                    journalLock.writeLock().unlock();
+                }
 
-            // binary output using objectoutputstream
-            try (ObjectOutputStream out = new ObjectOutputStream(Files.newOutputStream(snapshot))) {
-                out.writeObject(new ArrayList<>(byIsbn.values())); // write the hashmap
+                // fsynced temp file + atomic move, the rotated entries are deleted below so this must be durable
+                RecordFile.write(snapshot, MAGIC, VERSION, copies, LibraryCatalog::writeBook);
+                journal.dropRotated();
+            }
+            finally {
+                saveLatency.record(System.nanoTime() - start);
             }
-        } 
-        finally {
-            // unlock input access
-            lock.readLock().unlock();
         }
     }
 
     public void add(Book book) {
-        lock.writeLock().lock(); // lock output access
+        boolean[] existed = new boolean[1];
+        journalLock.readLock().lock();
         try {
-            byIsbn.put(book.getIsbn(), book); // add to the hashmap
+            // compute holds the isbn's bin, so the map, title index and journal see adds of one isbn in the same order
+            byIsbn.compute(book.getIsbn(), (isbn, previous) -> {
+                existed[0] = previous != null;
+                titleIndex.add(book); // incremental, no rebuild
+                if (columns != null) {
+                    columns.add(book.getIsbn(), book.getTitle(), book.getTotalCopies(), book.getCheckedOut());
+                }
+                try {
+                    journal.appendAdd(book);
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return book;
+            });
+            books.invalidate();
+            journal.flush(false); // admin operation, write it straight away
         } 
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
         finally {
-            lock.writeLock().unlock(); // unlock output access
+            journalLock.readLock().unlock();
         }
+        changed(existed[0] ? ChangeKind.UPDATED : ChangeKind.ADDED, book);
     }
 
-    public Optional<Book> get(String isbn) {
-        lock.readLock().lock(); // lock input access
+    // takes one copy of the book and queues the change for the journal, see flushJournal()
+    public boolean checkout(Book book) throws IOException {
+        journalLock.readLock().lock();
         try {
-            return Optional.ofNullable(byIsbn.get(isbn)); // return container of the book which might be null
-        } 
+            // compare-and-set reservation, only a successful one is journaled
+            if (!book.tryCheckout()) {
+                return false;
+            }
+            counted(book, 1);
+            journal.appendCheckout(book.getIsbn());
+            changed(ChangeKind.UPDATED, book);
+            return true;
+        }
+        finally {
+            journalLock.readLock().unlock();
+        }
+    }
+
+    // takes copies of the book for a batch, all of them or none
+    public boolean checkout(Book book, int copies) throws IOException {
+        journalLock.readLock().lock();
+        try {
+            if (!book.tryCheckout(copies)) {
+                return false;
+            }
+            counted(book, copies);
+            for (int i = 0; i < copies; i++) {
+                journal.appendCheckout(book.getIsbn());
+            }
+            changed(ChangeKind.UPDATED, book);
+            return true;
+        }
+        finally {
+            journalLock.readLock().unlock();
+        }
+    }
+
+    // takes one copy of every book, or none of them; returns the books that had no copy left
+    public List<Book> checkoutAll(List<Book> books) throws IOException {
+        journalLock.readLock().lock();
+        try {
+            List<Book> reserved = new ArrayList<>(books.size());
+            List<Book> missing = new ArrayList<>();
+            for (Book b : books) {
+                if (b.tryCheckout()) {
+                    reserved.add(b);
+                }
+                else {
+                    missing.add(b);
+                }
+            }
+
+            if (!missing.isEmpty()) {
+                // give back what was taken, nothing was journaled yet
+                for (Book b : reserved) {
+                    b.tryCheckin();
+                }
+                return missing;
+            }
+            for (Book b : reserved) {
+                counted(b, 1);
+                journal.appendCheckout(b.getIsbn());
+                changed(ChangeKind.UPDATED, b);
+            }
+            return missing;
+        }
+        finally {
+            journalLock.readLock().unlock();
+        }
+    }
+
+    // returns one copy of every book, or none of them; returns the books with no copy out
+    public List<Book> checkinAll(List<Book> books) throws IOException {
+        journalLock.readLock().lock();
+        try {
+            List<Book> released = new ArrayList<>(books.size());
+            List<Book> missing = new ArrayList<>();
+            for (Book b : books) {
+                if (b.tryCheckin()) {
+                    released.add(b);
+                }
+                else {
+                    missing.add(b);
+                }
+            }
+
+            if (!missing.isEmpty()) {
+                for (Book b : released) {
+                    b.tryCheckout();
+                }
+                return missing;
+            }
+            for (Book b : released) {
+                counted(b, -1);
+                journal.appendCheckin(b.getIsbn());
+                changed(ChangeKind.UPDATED, b);
+            }
+            return missing;
+        }
+        finally {
+            journalLock.readLock().unlock();
+        }
+    }
+
+    // returns one copy of the book and queues the change for the journal, see flushJournal()
+    public boolean checkin(Book book) throws IOException {
+        journalLock.readLock().lock();
+        try {
+            if (!book.tryCheckin()) {
+                return false;
+            }
+            counted(book, -1);
+            journal.appendCheckin(book.getIsbn());
+            changed(ChangeKind.UPDATED, book);
+            return true;
+        }
         finally {
-            lock.readLock().unlock(); // unlock input access
+            journalLock.readLock().unlock();
         }
     }
 
+    // ranked title search, e.g. "data str" finds "Data Structures and Algorithms"
+    public List<Book> search(String query, int limit) {
+        return titleIndex.search(query, limit);
+    }
+
+    // no lock, a concurrent add() is either seen whole or not at all
+    public Optional<Book> get(String isbn) {
+        return Optional.ofNullable(byIsbn.get(isbn)); // return container of the book which might be null
+    }
+
+    public int size() {
+        return byIsbn.size();
+    }
+
+    // unmodifiable and shared between callers, copy counts stay live since they sit in the Book objects
     public Collection<Book> all() {
-        lock.readLock().lock(); // lock input access
+        return books.get();
+    }
+
+    // copies checked out over all books
+    public long totalCheckedOut() {
+        ColumnarCatalog c = columns;
+        if (c != null) {
+            return c.totalCheckedOut();
+        }
+        long sum = 0;
+        for (Book b : byIsbn.values()) {
+            sum += b.getCheckedOut();
+        }
+        return sum;
+    }
+
+    // isbns with at most maxAvailable copies left
+    public List<String> lowAvailability(int maxAvailable) {
+        ColumnarCatalog c = columns;
+        if (c != null) {
+            return c.lowAvailability(maxAvailable);
+        }
+        List<String> result = new ArrayList<>();
+        for (Book b : byIsbn.values()) {
+            if (b.getAvailable() <= maxAvailable) {
+                result.add(b.getIsbn());
+            }
+        }
+        return result;
+    }
+
+    // changes whenever a book is added or the catalog reloaded
+    public long version() {
+        return books.version();
+    }
+
+    // subscribe here to follow the catalog without listing it again
+    public ChangeFeed<BookChange> changes() {
+        return changes;
+    }
+
+    // writes queued checkout/checkin records, force = fsync the journal as well
+    public void flushJournal(boolean force) throws IOException {
+        journal.flush(force);
+    }
+
+    // stops the compactor and folds any outstanding journal entries into the snapshot
+    public void close() throws IOException {
+        compactor.shutdown();
         try {
-            // return all of the books in the hashmap
-            return new ArrayList<>(byIsbn.values());
-        } 
+            journal.flush(false);
+            if (journal.entries() > 0) {
+                save();
+            }
+        }
         finally {
-            lock.readLock().unlock(); // unlock input access
+            journal.close();
+        }
+    }
+
+    private static void writeBook(Book book, DataOutput out) throws IOException {
+        out.writeUTF(book.getIsbn());
+        out.writeUTF(book.getTitle());
+        out.writeInt(book.getTotalCopies());
+        out.writeInt(book.getCheckedOut());
+    }
+
+    private static Book readBook(DataInput in, short version) throws IOException {
+        String isbn = in.readUTF();
+        String title = in.readUTF();
+        int total = in.readInt();
+        int checkedOut = in.readInt();
+        return new Book(isbn, title, total, checkedOut);
+    }
+
+    // caller holds the journal's read lock, so load() cannot swap the columns meanwhile
+    private void counted(Book book, int delta) {
+        if (columns != null) {
+            columns.adjustCheckedOut(book.getIsbn(), delta);
+        }
+    }
+
+    private void changed(ChangeKind kind, Book book) {
+        if (changes.hasSubscribers()) {
+            changes.publish(new BookChange(kind, book));
+        }
+    }
+
+    private void compactIfNeeded() {
+        try {
+            // nothing stays buffered longer than one tick, even without a committer
+            journal.flush(false);
+            if (journal.entries() >= COMPACT_THRESHOLD) {
+                save();
+            }
         }
+        catch (IOException ignored) {} // the journal still holds every change, retry on the next tick
     }
 }
\ No newline at end of file
@@ -0,0 +1,145 @@
+package final_project;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// counters, latency histograms and gauges of one LibraryService
+//
+// counters and histograms are preallocated, so recording on the rental path allocates nothing;
+// gauges are only evaluated when the metrics are read
+public class LibraryMetrics {
+
+    private final LongAdder[] succeeded = adders(EventType.values().length);
+    private final LongAdder[] rejected = adders(EventType.values().length * RejectReason.values().length);
+
+    private final LatencyHistogram lookup = new LatencyHistogram();
+    private final LatencyHistogram inventory = new LatencyHistogram();
+    private final LatencyHistogram logAppend = new LatencyHistogram();
+    private final LatencyHistogram catalogSave = new LatencyHistogram();
+
+    private final Map<String, LongSupplier> gauges = new LinkedHashMap<>();
+
+    public void succeeded(EventType type) {
+        succeeded[type.ordinal()].increment();
+    }
+
+    public void succeeded(EventType type, int events) {
+        succeeded[type.ordinal()].add(events);
+    }
+
+    public void rejected(EventType type, RejectReason reason) {
+        rejected[type.ordinal() * RejectReason.values().length + reason.ordinal()].increment();
+    }
+
+    public void rejected(EventType type, RejectReason reason, int events) {
+        rejected[type.ordinal() * RejectReason.values().length + reason.ordinal()].add(events);
+    }
+
+    public long getSucceeded(EventType type) {
+        return succeeded[type.ordinal()].sum();
+    }
+
+    public long getRejected(EventType type, RejectReason reason) {
+        return rejected[type.ordinal() * RejectReason.values().length + reason.ordinal()].sum();
+    }
+
+    public long getRejected(EventType type) {
+        long total = 0;
+        for (RejectReason reason : RejectReason.values()) {
+            total += getRejected(type, reason);
+        }
+        return total;
+    }
+
+    // student and book lookups of a rent or return
+    public LatencyHistogram getLookupLatency() {
+        return lookup;
+    }
+
+    // claim plus catalog checkout/checkin
+    public LatencyHistogram getInventoryLatency() {
+        return inventory;
+    }
+
+    // one event written to a student log by the committer
+    public LatencyHistogram getLogAppendLatency() {
+        return logAppend;
+    }
+
+    // full catalog snapshots, recorded by LibraryCatalog
+    public LatencyHistogram getCatalogSaveLatency() {
+        return catalogSave;
+    }
+
+    // register a value computed on demand, e.g. a collection size
+    public synchronized void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    public synchronized long getGauge(String name) {
+        LongSupplier value = gauges.get(name);
+        return value == null ? 0 : value.getAsLong();
+    }
+
+    // one "name value" line per metric, latencies in microseconds
+    public synchronized List<String> report() {
+        List<String> lines = new ArrayList<>();
+        for (EventType type : EventType.values()) {
+            String op = type.name().toLowerCase();
+            lines.add(op + ".ok " + getSucceeded(type));
+            for (RejectReason reason : RejectReason.values()) {
+                long n = getRejected(type, reason);
+                if (n > 0) {
+                    lines.add(op + ".rejected." + reason.name().toLowerCase() + " " + n);
+                }
+            }
+        }
+
+        lines.add(histogram("latency.lookup", lookup));
+        lines.add(histogram("latency.inventory", inventory));
+        lines.add(histogram("latency.log_append", logAppend));
+        lines.add(histogram("latency.catalog_save", catalogSave));
+
+        for (Map.Entry<String, LongSupplier> g : gauges.entrySet()) {
+            lines.add(g.getKey() + " " + g.getValue().getAsLong());
+        }
+        return lines;
+    }
+
+    // replaces the file with the current report, a reader never sees a half-written one
+    public void dump(Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(temp)) {
+            out.write("# " + Instant.now());
+            out.newLine();
+            for (String line : report()) {
+                out.write(line);
+                out.newLine();
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String histogram(String name, LatencyHistogram h) {
+        return String.format("%s count=%d mean=%.1f p50=%.1f p99=%.1f p999=%.1f max=%.1f", name, h.count(),
+                h.mean() / 1e3, h.percentile(50) / 1e3, h.percentile(99) / 1e3, h.percentile(99.9) / 1e3, h.max() / 1e3);
+    }
+
+    private static LongAdder[] adders(int n) {
+        LongAdder[] adders = new LongAdder[n];
+        for (int i = 0; i < n; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+}
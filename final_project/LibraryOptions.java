@@ -0,0 +1,69 @@
+package final_project;
+
+// storage and durability settings for LibraryService, the defaults match the plain constructor
+public class LibraryOptions {
+
+    private DurabilityPolicy durability = DurabilityPolicy.BATCH;
+    private RegistryBackend registryBackend = RegistryBackend.HEAP;
+    private CatalogBackend catalogBackend = CatalogBackend.HEAP;
+    private LogBackend logBackend = LogBackend.FILES;
+    private int metricsDumpSeconds = 60; // 0 = never write metrics.txt
+    private int logArchiveDays = 365; // log history older than this is archived, 0 = never
+    private int loanDays = 14; // rentals are due this long after they start, 0 = no due dates
+
+    public DurabilityPolicy getDurability() {
+        return durability;
+    }
+
+    public void setDurability(DurabilityPolicy durability) {
+        this.durability = durability;
+    }
+
+    public RegistryBackend getRegistryBackend() {
+        return registryBackend;
+    }
+
+    public void setRegistryBackend(RegistryBackend registryBackend) {
+        this.registryBackend = registryBackend;
+    }
+
+    public CatalogBackend getCatalogBackend() {
+        return catalogBackend;
+    }
+
+    public void setCatalogBackend(CatalogBackend catalogBackend) {
+        this.catalogBackend = catalogBackend;
+    }
+
+    public LogBackend getLogBackend() {
+        return logBackend;
+    }
+
+    public void setLogBackend(LogBackend logBackend) {
+        this.logBackend = logBackend;
+    }
+
+    public int getMetricsDumpSeconds() {
+        return metricsDumpSeconds;
+    }
+
+    public void setMetricsDumpSeconds(int metricsDumpSeconds) {
+        this.metricsDumpSeconds = metricsDumpSeconds;
+    }
+
+    public int getLogArchiveDays() {
+        return logArchiveDays;
+    }
+
+    public void setLogArchiveDays(int logArchiveDays) {
+        this.logArchiveDays = logArchiveDays;
+    }
+
+    public int getLoanDays() {
+        return loanDays;
+    }
+
+    public void setLoanDays(int loanDays) {
+        this.loanDays = loanDays;
+    }
+}
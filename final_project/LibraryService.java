@@ -1,51 +1,233 @@
 package final_project;
 
-import java.io.BufferedInputStream;
-import java.io.DataInputStream;
-import java.io.EOFException;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 public class LibraryService {
 
-    private final BinaryStudentRegistry registry;
+    // INTERVAL policy: how often the committer forces the files
+    private static final long FORCE_INTERVAL_MILLIS = 50;
+    private static final long CHECKPOINT_INTERVAL_MINUTES = 5;
+    private static final long COMPACTION_INTERVAL_HOURS = 24;
+    private static final long OVERDUE_SCAN_SECONDS = 60;
+
+    // async requests: worker threads and how many may wait before new ones are refused
+    private static final int REQUEST_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private static final int REQUEST_QUEUE = 1024;
+    private static final long REQUEST_DRAIN_SECONDS = 5;
+
+    private final StudentRegistry registry;
     private final LibraryCatalog catalog;
     private final Path logsDir;
-    private final ExecutorService pool;
+    private final EventStore events;
+    private final RentalCommitter committer;
+    private final RentalCheckpoint rentalCheckpoint;
+    private volatile Map<String, RentalCheckpoint.Entry> checkpointed = new HashMap<>(); // last one read or written
+    private final ForkJoinPool pool;
+    private final ScheduledExecutorService maintenance;
+    private final ThreadPoolExecutor requests;
+    private final LibraryMetrics metrics = new LibraryMetrics();
+    private final Path metricsFile; // null when metrics are not dumped
+
+    // ISBNs every student currently has rented, interned to ints; its stripe monitors make a
+    // student's check-and-claim atomic
+    private final HoldingsTable activeRentals = new HoldingsTable();
 
-    // studentId -> set of ISBNs they currently have rented
-    private final ConcurrentMap<String, Set<String>> activeRentals = new ConcurrentHashMap<>();
+    // due date of every active rental that has one, changed under the same stripe monitors
+    private final DueWheel dueDates = new DueWheel(System.currentTimeMillis());
+    private final ChangeFeed<OverdueRental> overdueNotices = new ChangeFeed<>();
+    private final long loanMillis; // 0 = rentals have no due date
+
+    // students waiting per isbn; the isbn's lock is taken before any student stripe
+    private final HoldQueues holds = new HoldQueues();
 
     public LibraryService(Path dataDir) {
+        this(dataDir, DurabilityPolicy.BATCH);
+    }
+
+    public LibraryService(Path dataDir, DurabilityPolicy policy) {
+        this(dataDir, durabilityOnly(policy));
+    }
+
+    public LibraryService(Path dataDir, LibraryOptions options) {
         try {
             Files.createDirectories(dataDir);
         } 
         catch (IOException ignored) {}
 
-        this.registry = new BinaryStudentRegistry(dataDir);
-        this.catalog  = new LibraryCatalog(dataDir);
+        this.registry = options.getRegistryBackend() == RegistryBackend.MAPPED
+                ? new MappedStudentRegistry(dataDir)
+                : new BinaryStudentRegistry(dataDir);
+        this.catalog  = new LibraryCatalog(dataDir, metrics.getCatalogSaveLatency(), options.getCatalogBackend());
         this.logsDir  = dataDir.resolve("logs");
-        this.pool     = Executors.newCachedThreadPool();
+        this.events   = openEvents(options.getLogBackend(), dataDir, logsDir);
+        this.committer = new RentalCommitter(catalog, events, options.getDurability(), FORCE_INTERVAL_MILLIS, metrics);
+        this.rentalCheckpoint = options.getLogBackend() == LogBackend.SEGMENTED
+                ? new RentalCheckpoint(dataDir, "rentals-events.ckpt")
+                : new RentalCheckpoint(dataDir);
+        this.pool     = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        this.metricsFile = options.getMetricsDumpSeconds() > 0 ? dataDir.resolve("metrics.txt") : null;
+        this.loanMillis = TimeUnit.DAYS.toMillis(options.getLoanDays());
+
+        // shared by every async request, a full queue refuses work instead of piling up threads
+        AtomicInteger requestThreads = new AtomicInteger();
+        this.requests = new ThreadPoolExecutor(REQUEST_THREADS, REQUEST_THREADS, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(REQUEST_QUEUE), r -> {
+                    Thread t = new Thread(r, "library-request-" + requestThreads.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+
+        // computed only when the metrics are read
+        metrics.gauge("active_rentals.students", activeRentals::students);
+        metrics.gauge("active_rentals.books", activeRentals::size);
+        metrics.gauge("active_rentals.overdue", dueDates::overdueCount);
+        metrics.gauge("holds.waiting", holds::waiting);
+        metrics.gauge("catalog.books", catalog::size);
+        metrics.gauge("catalog.checked_out", catalog::totalCheckedOut);
+        metrics.gauge("committer.queued", committer::queued);
 
+        // background housekeeping: the periodic rentals checkpoint and the metrics dump
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "library-maintenance");
+            t.setDaemon(true);
+            return t;
+        });
+        this.maintenance.scheduleWithFixedDelay(() -> {
+            try {
+                checkpoint();
+            }
+            catch (IOException ignored) {} // the logs are still complete, retry next time
+        }, CHECKPOINT_INTERVAL_MINUTES, CHECKPOINT_INTERVAL_MINUTES, TimeUnit.MINUTES);
+
+        // archive old log history once a day, the first run an hour after startup
+        int archiveDays = options.getLogArchiveDays();
+        if (archiveDays > 0) {
+            this.maintenance.scheduleWithFixedDelay(
+                    () -> compactLogs(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(archiveDays)),
+                    1, COMPACTION_INTERVAL_HOURS, TimeUnit.HOURS);
+        }
+
+        // tells overdueNotices subscribers about rentals as they fall due
+        this.maintenance.scheduleWithFixedDelay(this::advanceDueDates,
+                OVERDUE_SCAN_SECONDS, OVERDUE_SCAN_SECONDS, TimeUnit.SECONDS);
+
+        int dumpSeconds = options.getMetricsDumpSeconds();
+        if (metricsFile != null) {
+            this.maintenance.scheduleAtFixedRate(this::dumpMetrics, dumpSeconds, dumpSeconds, TimeUnit.SECONDS);
+        }
     }
 
     public void initDemoData() {
+        initDemoData(null);
+    }
+
+    public void initDemoData(RecoveryListener listener) {
         try {
             registry.load();
             catalog.load();
         } 
         catch (Exception e) {}
 
+        recoverActiveRentals(true, listener);
+    }
+
+    // rebuilds activeRentals from the checkpoint plus the log tails written after it,
+    // fanned out over the pool when parallel
+    public void recoverActiveRentals(boolean parallel, RecoveryListener listener) {
+        Map<String, RentalCheckpoint.Entry> checkpoint = rentalCheckpoint.read();
+        Map<String, RentalCheckpoint.Entry> recovered = new ConcurrentHashMap<>();
+        List<Student> students = registry.listAll();
+        int total = students.size();
+        int step = Math.max(1, total / 100); // report roughly once per percent
+        AtomicInteger done = new AtomicInteger();
+
+        // each student log is independent, so the replays need no coordination
+        Runnable replay = () -> (parallel ? students.parallelStream() : students.stream()).forEach(s -> {
+            rebuildActiveRentalsForStudent(s.getId(), checkpoint.get(s.getId()), recovered);
+            int n = done.incrementAndGet();
+            if (listener != null && (n % step == 0 || n == total)) {
+                listener.onProgress(n, total);
+            }
+        });
+
+        if (parallel) {
+            // a parallel stream started inside the pool runs on the pool's workers
+            pool.submit(replay).join();
+        }
+        else {
+            replay.run();
+        }
+        checkpointed = recovered;
+    }
+
+    // writes activeRentals and each log's length, so the next start only replays newer events
+    public void checkpoint() throws IOException {
+        try {
+            committer.runExclusive(() -> {
+                try {
+                    writeCheckpoint();
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).join();
+        }
+        catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException io) {
+                throw io.getCause();
+            }
+            throw e;
+        }
+    }
+
+    // runs on the committer's thread once everything queued before it is written and forced, or after
+    // the committer stopped; either way no log grows meanwhile and each log's end is durable. the
+    // entries are folded from the last checkpoint and the log tails, not sampled from memory, where
+    // rentals whose records are still queued already show up. only logs written since the last
+    // checkpoint are read, the others keep their entry; an entry describes its log up to its own
+    // offset, so one that is left behind, e.g. after a failed write below, only means a longer replay
+    private void writeCheckpoint() throws IOException {
+        Map<String, RentalCheckpoint.Entry> entries = new HashMap<>(checkpointed);
+        for (String studentId : committer.takeChanged()) {
+            entries.put(studentId, replayLog(studentId, checkpointed.get(studentId)));
+        }
+        rentalCheckpoint.write(entries);
+        checkpointed = entries;
+    }
+
+    // moves every student's log history older than cutoffMillis into archives, returns how many logs
+    // were compacted; runs beside the rental path, a failed log is simply left for the next run
+    public int compactLogs(long cutoffMillis) {
+        int compacted = 0;
         for (Student s : registry.listAll()) {
-            rebuildActiveRentalsForStudent(s.getId());
+            try {
+                if (events.compact(s.getId(), cutoffMillis)) {
+                    committer.markChanged(s.getId()); // its entry's offset points into the old log
+                    compacted++;
+                }
+            }
+            catch (IOException ignored) {}
         }
+        return compacted;
     }
 
-    public BinaryStudentRegistry getRegistry() {
+    public StudentRegistry getRegistry() {
         return registry;
     }
 
@@ -53,142 +235,902 @@ public class LibraryService {
         return catalog;
     }
 
+    // read-only use intended, changes go through rent and return
+    public HoldingsTable getActiveRentals() {
+        return activeRentals;
+    }
+
+    // students currently renting the isbn, straight from the table's reverse side
+    public List<String> holdersOf(String isbn) {
+        return activeRentals.holders(isbn);
+    }
+
+    public boolean placeHold(String studentId, String isbn) {
+        return submitHold(studentId, isbn).join();
+    }
+
+    // joins the isbn's queue, or rents a copy right away when one is free and nobody is waiting for it;
+    // the future completes with true once the HOLD or RENT event is durable
+    public CompletableFuture<Boolean> submitHold(String studentId, String isbn) {
+        try {
+            if (registry.findById(studentId).isEmpty()) {
+                return rejected(EventType.HOLD, RejectReason.UNKNOWN_STUDENT);
+            }
+            Optional<Book> bookOpt = catalog.get(isbn);
+            if (bookOpt.isEmpty()) {
+                return rejected(EventType.HOLD, RejectReason.UNKNOWN_BOOK);
+            }
+
+            int student = activeRentals.student(studentId);
+            Book book = bookOpt.get();
+            long now = System.currentTimeMillis();
+            long dueAt = dueFrom(now);
+
+            synchronized (holds.lock(isbn)) {
+                if (holds.contains(isbn, student)) {
+                    return rejected(EventType.HOLD, RejectReason.ALREADY_QUEUED);
+                }
+                synchronized (activeRentals.lock(student)) {
+                    if (!activeRentals.add(student, isbn)) {
+                        return rejected(EventType.HOLD, RejectReason.ALREADY_RENTED);
+                    }
+
+                    // a free copy only counts when nobody is ahead in the queue
+                    boolean reserved = false;
+                    try {
+                        reserved = !holds.hasWaiters(isbn) && catalog.checkout(book);
+                    }
+                    finally {
+                        if (!reserved) {
+                            activeRentals.remove(student, isbn);
+                        }
+                    }
+                    if (reserved) {
+                        scheduleDue(student, isbn, dueAt);
+                        byte[] record = StudentFileLog.encode(now, EventType.RENT, isbn, book.getTitle(), dueAt);
+                        return committer.submit(studentId, EventType.RENT, record, () -> undoRent(student, book));
+                    }
+                }
+
+                // queued while the lock is held, so the HOLD is in the log before any hand-off's RENT
+                long ticket = holds.add(isbn, student);
+                byte[] record = StudentFileLog.encode(now, EventType.HOLD, isbn, book.getTitle(), ticket);
+                return committer.submit(studentId, EventType.HOLD, record, () -> undoHold(student, isbn));
+            }
+        }
+        catch (Exception e) {
+            return rejected(EventType.HOLD, RejectReason.ERROR);
+        }
+    }
+
+    public boolean cancelHold(String studentId, String isbn) {
+        return submitCancelHold(studentId, isbn).join();
+    }
+
+    public CompletableFuture<Boolean> submitCancelHold(String studentId, String isbn) {
+        try {
+            if (registry.findById(studentId).isEmpty()) {
+                return rejected(EventType.CANCEL_HOLD, RejectReason.UNKNOWN_STUDENT);
+            }
+            Optional<Book> bookOpt = catalog.get(isbn);
+            if (bookOpt.isEmpty()) {
+                return rejected(EventType.CANCEL_HOLD, RejectReason.UNKNOWN_BOOK);
+            }
+
+            int student = activeRentals.student(studentId);
+            synchronized (holds.lock(isbn)) {
+                long ticket = holds.remove(isbn, student);
+                if (ticket == 0) {
+                    return rejected(EventType.CANCEL_HOLD, RejectReason.NOT_QUEUED);
+                }
+                byte[] record = StudentFileLog.encode(System.currentTimeMillis(), EventType.CANCEL_HOLD, isbn,
+                        bookOpt.get().getTitle());
+                return committer.submit(studentId, EventType.CANCEL_HOLD, record,
+                        () -> undoCancelHold(student, isbn, ticket));
+            }
+        }
+        catch (Exception e) {
+            return rejected(EventType.CANCEL_HOLD, RejectReason.ERROR);
+        }
+    }
+
+    // students waiting for the isbn, first in line first
+    public List<String> holdQueue(String isbn) {
+        List<Integer> students;
+        synchronized (holds.lock(isbn)) {
+            students = holds.students(isbn);
+        }
+        List<String> result = new ArrayList<>(students.size());
+        for (int student : students) {
+            result.add(activeRentals.studentId(student));
+        }
+        return result;
+    }
+
+    // hands copies that are free while students wait to the first of them, e.g. after copies were added;
+    // returns how many were handed over
+    public int serveHolds(String isbn) {
+        Optional<Book> bookOpt = catalog.get(isbn);
+        if (bookOpt.isEmpty()) {
+            return 0;
+        }
+
+        Book book = bookOpt.get();
+        long now = System.currentTimeMillis();
+        long dueAt = dueFrom(now);
+        int served = 0;
+        try {
+            synchronized (holds.lock(isbn)) {
+                while (holds.hasWaiters(isbn) && catalog.checkout(book)) {
+                    int next = handOff(book, dueAt);
+                    if (next < 0) {
+                        break;
+                    }
+                    logHandOff(next, book, now, dueAt);
+                    served++;
+                }
+            }
+        }
+        catch (IOException ignored) {} // the journal write failed, the copy stays with the catalog
+        return served;
+    }
+
+    // every rental past its due date, the wheel is brought up to now first
+    public List<OverdueRental> overdue() {
+        advanceDueDates();
+        List<OverdueRental> result = new ArrayList<>();
+        for (DueWheel.Entry entry : dueDates.overdue()) {
+            result.add(overdueRental(entry));
+        }
+        return result;
+    }
+
+    // each rental once, when it falls due; published by the periodic scan or whichever overdue() call
+    // notices it first, rentals already overdue at startup are only listed by overdue()
+    public ChangeFeed<OverdueRental> overdueNotices() {
+        return overdueNotices;
+    }
+
+    public LibraryMetrics getMetrics() {
+        return metrics;
+    }
+
     public boolean rentBook(String studentId, String isbn) {
+        return submitRent(studentId, isbn).join();
+    }
+
+    // reserves the copy right away, the future completes once the RENT event is durable
+    public CompletableFuture<Boolean> submitRent(String studentId, String isbn) {
         try {
+            long start = System.nanoTime();
+
             // threaded student lookup via RecordMatcher
             RecordMatcher matcher = new RecordMatcher(registry, studentId);
             Optional<Student> studentOpt = matcher.call();
             if (studentOpt.isEmpty()) {
-                return false;
+                return rejected(EventType.RENT, RejectReason.UNKNOWN_STUDENT);
             }
 
             Optional<Book> bookOpt = catalog.get(isbn);
+            long looked = System.nanoTime();
+            metrics.getLookupLatency().record(looked - start);
             if (bookOpt.isEmpty()) {
-                return false;
+                return rejected(EventType.RENT, RejectReason.UNKNOWN_BOOK);
             }
 
             // per‑student constraint: cannot rent same ISBN twice
-            Set<String> studentRentals = rentalsFor(studentId);
-            if (studentRentals.contains(isbn)) {
-                // student already has this book
-                return false;
+            // add() is the claim, so two concurrent rents of the same ISBN cannot both pass
+            int student = activeRentals.student(studentId);
+            Book book = bookOpt.get();
+            long now = System.currentTimeMillis();
+            long dueAt = dueFrom(now);
+
+            // claim and reservation under the student's monitor, so a checkpoint never sees a half-done rental;
+            // the isbn's lock around it keeps a copy from being taken past students waiting for it
+            synchronized (holds.lock(isbn)) {
+                if (holds.hasWaiters(isbn)) {
+                    // every copy that comes back belongs to the queue
+                    return rejected(EventType.RENT, RejectReason.NO_COPY);
+                }
+                synchronized (activeRentals.lock(student)) {
+                    if (!activeRentals.add(student, isbn)) {
+                        // student already has this book
+                        return rejected(EventType.RENT, RejectReason.ALREADY_RENTED);
+                    }
+
+                    // mutate inventory, the catalog journals the delta instead of rewriting the snapshot
+                    boolean reserved = false;
+                    try {
+                        reserved = catalog.checkout(book);
+                    }
+                    finally {
+                        if (!reserved) {
+                            // no copy left, give the claim back
+                            activeRentals.remove(student, isbn);
+                        }
+                    }
+                    if (!reserved) {
+                        return rejected(EventType.RENT, RejectReason.NO_COPY);
+                    }
+                    scheduleDue(student, isbn, dueAt);
+                }
             }
+            metrics.getInventoryLatency().record(System.nanoTime() - looked);
 
-            Book book = bookOpt.get();
-            if (!book.isAvailable()) {
-                return false;
+            // queue the RENT log, the committer writes it with the catalog delta in one batch
+            byte[] record = StudentFileLog.encode(now, EventType.RENT, isbn, book.getTitle(), dueAt);
+            return committer.submit(studentId, EventType.RENT, record, () -> undoRent(student, book));
+        } 
+        catch (Exception e) {
+            return rejected(EventType.RENT, RejectReason.ERROR);
+        }
+    }
+
+    public boolean returnBook(String studentId, String isbn) {
+        return submitReturn(studentId, isbn).join();
+    }
+
+    // rentBook off the caller's thread, e.g. the javafx thread; the worker is free again as soon as
+    // the event is queued, the future completes once it is durable
+    public CompletableFuture<Boolean> rentBookAsync(String studentId, String isbn) {
+        return async(() -> submitRent(studentId, isbn)).thenCompose(f -> f);
+    }
+
+    public CompletableFuture<Boolean> returnBookAsync(String studentId, String isbn) {
+        return async(() -> submitReturn(studentId, isbn)).thenCompose(f -> f);
+    }
+
+    public BatchResult rentBooks(String studentId, List<String> isbns) {
+        return submitRentBooks(studentId, isbns).join();
+    }
+
+    // course reserves: every isbn to one student or none of them, one reservation pass over the
+    // catalog, one journal write and one append to the student's log
+    public CompletableFuture<BatchResult> submitRentBooks(String studentId, List<String> isbns) {
+        Map<String, RejectReason> reasons = new LinkedHashMap<>();
+        try {
+            if (registry.findById(studentId).isEmpty()) {
+                isbns.forEach(isbn -> reasons.put(isbn, RejectReason.UNKNOWN_STUDENT));
+                return refused(EventType.RENT, isbns, reasons);
+            }
+            List<Book> books = lookupBooks(isbns, reasons, RejectReason.ALREADY_RENTED);
+            if (!reasons.isEmpty()) {
+                return refused(EventType.RENT, isbns, reasons);
+            }
+
+            int student = activeRentals.student(studentId);
+            long now = System.currentTimeMillis();
+            long dueAt = dueFrom(now);
+            List<Object> locks = holds.locks(isbns);
+
+            boolean reserved = synchronizedAll(locks, 0, () -> {
+                synchronized (activeRentals.lock(student)) {
+                    for (Book book : books) {
+                        if (activeRentals.holds(student, book.getIsbn())) {
+                            reasons.put(book.getIsbn(), RejectReason.ALREADY_RENTED);
+                        }
+                        else if (holds.hasWaiters(book.getIsbn())) {
+                            reasons.put(book.getIsbn(), RejectReason.NO_COPY); // copies go to the queue first
+                        }
+                    }
+                    if (reasons.isEmpty()) {
+                        try {
+                            for (Book missing : catalog.checkoutAll(books)) {
+                                reasons.put(missing.getIsbn(), RejectReason.NO_COPY);
+                            }
+                        }
+                        catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                    if (!reasons.isEmpty()) {
+                        return false;
+                    }
+                    for (Book book : books) {
+                        activeRentals.add(student, book.getIsbn());
+                        scheduleDue(student, book.getIsbn(), dueAt);
+                    }
+                    return true;
+                }
+            });
+            if (!reserved) {
+                return refused(EventType.RENT, isbns, reasons);
             }
 
-            // mutate inventory
-            book.checkout();
-            catalog.add(book);
-            catalog.save();
+            // every RENT record of the batch, appended to the log in one write
+            ByteArrayOutputStream records = new ByteArrayOutputStream(64 * books.size());
+            for (Book book : books) {
+                records.write(StudentFileLog.encode(now, EventType.RENT, book.getIsbn(), book.getTitle(), dueAt));
+            }
+            Runnable undo = () -> books.forEach(book -> undoRent(student, book));
+            return committer.submitAll(EventType.RENT, List.of(studentId), List.of(records.toByteArray()), books.size(),
+                    List.of(undo)).thenApply(ok -> durable(ok, isbns));
+        }
+        catch (Exception e) {
+            isbns.forEach(isbn -> reasons.putIfAbsent(isbn, RejectReason.ERROR));
+            return refused(EventType.RENT, isbns, reasons);
+        }
+    }
+
+    public BatchResult returnBooks(String studentId, List<String> isbns) {
+        return submitReturnBooks(studentId, isbns).join();
+    }
 
-            // record that this student now holds this ISBN
-            studentRentals.add(isbn);
+    // end of term: every isbn back from one student or none of them
+    public CompletableFuture<BatchResult> submitReturnBooks(String studentId, List<String> isbns) {
+        Map<String, RejectReason> reasons = new LinkedHashMap<>();
+        try {
+            if (registry.findById(studentId).isEmpty()) {
+                isbns.forEach(isbn -> reasons.put(isbn, RejectReason.UNKNOWN_STUDENT));
+                return refused(EventType.RETURN, isbns, reasons);
+            }
+            List<Book> books = lookupBooks(isbns, reasons, RejectReason.NOT_RENTED);
+            if (!reasons.isEmpty()) {
+                return refused(EventType.RETURN, isbns, reasons);
+            }
 
-            // append RENT log
-            StudentFileLog log = new StudentFileLog(logsDir, studentId);
-            log.append(EventType.RENT, isbn, book.getTitle());
+            int student = activeRentals.student(studentId);
+            long now = System.currentTimeMillis();
+            long dueAt = dueFrom(now);
+            List<Object> locks = holds.locks(isbns);
+            Map<Book, Long> dues = new HashMap<>(); // due dates the returns cancelled, for undoReturn
 
-            return true;
-        } 
+            boolean released = synchronizedAll(locks, 0, () -> {
+                try {
+                    // books someone waits for skip the catalog and go to the first of them below
+                    List<Book> checkin = new ArrayList<>();
+                    synchronized (activeRentals.lock(student)) {
+                        for (Book book : books) {
+                            if (!activeRentals.holds(student, book.getIsbn())) {
+                                reasons.put(book.getIsbn(), RejectReason.NOT_RENTED);
+                            }
+                            else if (!holds.hasWaiters(book.getIsbn())) {
+                                checkin.add(book);
+                            }
+                        }
+                        if (reasons.isEmpty()) {
+                            for (Book missing : catalog.checkinAll(checkin)) {
+                                reasons.put(missing.getIsbn(), RejectReason.NOT_CHECKED_OUT);
+                            }
+                        }
+                        if (!reasons.isEmpty()) {
+                            return false;
+                        }
+                        for (Book book : books) {
+                            int isbnId = activeRentals.isbnId(book.getIsbn());
+                            dues.put(book, dueDates.dueAt(student, isbnId));
+                            activeRentals.remove(student, book.getIsbn());
+                            dueDates.cancel(student, isbnId);
+                        }
+                    }
+                    for (Book book : books) {
+                        if (!checkin.contains(book)) {
+                            int next = handOff(book, dueAt);
+                            if (next >= 0) {
+                                logHandOff(next, book, now, dueAt);
+                            }
+                        }
+                    }
+                    return true;
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            if (!released) {
+                return refused(EventType.RETURN, isbns, reasons);
+            }
+
+            ByteArrayOutputStream records = new ByteArrayOutputStream(64 * books.size());
+            for (Book book : books) {
+                records.write(StudentFileLog.encode(now, EventType.RETURN, book.getIsbn(), book.getTitle()));
+            }
+            Runnable undo = () -> books.forEach(book -> undoReturn(student, book, dues.get(book)));
+            return committer.submitAll(EventType.RETURN, List.of(studentId), List.of(records.toByteArray()), books.size(),
+                    List.of(undo)).thenApply(ok -> durable(ok, isbns));
+        }
         catch (Exception e) {
-            return false;
+            isbns.forEach(isbn -> reasons.putIfAbsent(isbn, RejectReason.ERROR));
+            return refused(EventType.RETURN, isbns, reasons);
         }
     }
 
-    public boolean returnBook(String studentId, String isbn) {
+    public BatchResult rentToMany(String isbn, List<String> studentIds) {
+        return submitRentToMany(isbn, studentIds).join();
+    }
+
+    // one isbn to a whole class, every student gets a copy or nobody does
+    public CompletableFuture<BatchResult> submitRentToMany(String isbn, List<String> studentIds) {
+        Map<String, RejectReason> reasons = new LinkedHashMap<>();
         try {
+            Optional<Book> bookOpt = catalog.get(isbn);
+            if (bookOpt.isEmpty()) {
+                studentIds.forEach(id -> reasons.put(id, RejectReason.UNKNOWN_BOOK));
+                return refused(EventType.RENT, studentIds, reasons);
+            }
+            Book book = bookOpt.get();
+
+            Set<String> seen = new HashSet<>();
+            for (String studentId : studentIds) {
+                if (!seen.add(studentId)) {
+                    reasons.put(studentId, RejectReason.ALREADY_RENTED); // listed twice
+                }
+                else if (registry.findById(studentId).isEmpty()) {
+                    reasons.put(studentId, RejectReason.UNKNOWN_STUDENT);
+                }
+            }
+            if (!reasons.isEmpty()) {
+                return refused(EventType.RENT, studentIds, reasons);
+            }
+
+            // every student's monitor, always taken in stripe order so two batches cannot deadlock
+            List<String> ordered = new ArrayList<>(studentIds);
+            ordered.sort(null);
+            int[] students = new int[ordered.size()];
+            for (int i = 0; i < students.length; i++) {
+                students[i] = activeRentals.student(ordered.get(i));
+            }
+            // the isbn's lock goes first, like on every other path
+            List<Object> monitors = new ArrayList<>();
+            monitors.add(holds.lock(isbn));
+            Arrays.stream(students).map(HoldingsTable::stripe).distinct().sorted()
+                    .forEach(stripe -> monitors.add(activeRentals.lock(stripe)));
+            long now = System.currentTimeMillis();
+            long dueAt = dueFrom(now);
+
+            boolean reserved = synchronizedAll(monitors, 0, () -> {
+                if (holds.hasWaiters(isbn)) {
+                    studentIds.forEach(id -> reasons.put(id, RejectReason.NO_COPY)); // copies go to the queue first
+                    return false;
+                }
+                for (int i = 0; i < ordered.size(); i++) {
+                    if (activeRentals.holds(students[i], isbn)) {
+                        reasons.put(ordered.get(i), RejectReason.ALREADY_RENTED);
+                    }
+                }
+                if (!reasons.isEmpty()) {
+                    return false;
+                }
+                try {
+                    if (!catalog.checkout(book, studentIds.size())) {
+                        // the students past the copies that are left are the ones without one
+                        int available = Math.max(0, book.getAvailable());
+                        for (String studentId : studentIds.subList(Math.min(available, studentIds.size()), studentIds.size())) {
+                            reasons.put(studentId, RejectReason.NO_COPY);
+                        }
+                        return false;
+                    }
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                for (int student : students) {
+                    activeRentals.add(student, isbn);
+                    scheduleDue(student, isbn, dueAt);
+                }
+                return true;
+            });
+            if (!reserved) {
+                return refused(EventType.RENT, studentIds, reasons);
+            }
+
+            // one record per student log, queued as one unit
+            List<byte[]> records = new ArrayList<>(ordered.size());
+            List<Runnable> undos = new ArrayList<>(ordered.size());
+            for (int i = 0; i < ordered.size(); i++) {
+                int student = students[i];
+                records.add(StudentFileLog.encode(now, EventType.RENT, isbn, book.getTitle(), dueAt));
+                undos.add(() -> undoRent(student, book));
+            }
+            return committer.submitAll(EventType.RENT, ordered, records, 1, undos)
+                    .thenApply(ok -> durable(ok, studentIds));
+        }
+        catch (Exception e) {
+            studentIds.forEach(id -> reasons.putIfAbsent(id, RejectReason.ERROR));
+            return refused(EventType.RENT, studentIds, reasons);
+        }
+    }
+
+    // newest-first pages of one student's log, read them with nextLogPageAsync
+    public LogCursor openLog(String studentId, int pageSize) throws IOException {
+        return events.history(studentId).cursor(pageSize);
+    }
+
+    // the cursor's next page, read on a request thread
+    public CompletableFuture<List<LogEntry>> nextLogPageAsync(LogCursor cursor) {
+        return async(() -> {
+            try {
+                return cursor.nextPage();
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    // formatted log lines of one student, read on a request thread
+    public CompletableFuture<List<String>> readLogsAsync(String studentId) {
+        return async(() -> {
+            try {
+                List<String> lines = new ArrayList<>();
+                for (LogEntry entry : events.history(studentId).read(0, Integer.MAX_VALUE)) {
+                    lines.add(entry.toString());
+                }
+                return lines;
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    // releases the copy right away, the future completes once the RETURN event is durable
+    public CompletableFuture<Boolean> submitReturn(String studentId, String isbn) {
+        try {
+            long start = System.nanoTime();
+
             Optional<Student> studentOpt = registry.findById(studentId);
             if (studentOpt.isEmpty()) {
-                return false;
+                return rejected(EventType.RETURN, RejectReason.UNKNOWN_STUDENT);
             }
 
             Optional<Book> bookOpt = catalog.get(isbn);
+            long looked = System.nanoTime();
+            metrics.getLookupLatency().record(looked - start);
             if (bookOpt.isEmpty()) {
-                return false;
+                return rejected(EventType.RETURN, RejectReason.UNKNOWN_BOOK);
             }
 
             // per‑student constraint: must actually have this ISBN
-            Set<String> studentRentals = rentalsFor(studentId);
-            if (!studentRentals.contains(isbn)) {
-                // this student never rented (or already returned) this book
-                return false;
-            }
-
+            // remove() is the claim, so the same copy cannot be returned twice
+            int student = activeRentals.student(studentId);
             Book book = bookOpt.get();
-            if (book.getCheckedOut() == 0) {
-                // global safety check
-                return false;
-            }
-
-            // mutate inventory
-            book.checkin();
-            catalog.add(book);
-            catalog.save();
+            long now = System.currentTimeMillis();
+            long dueAt = dueFrom(now);
 
-            // remove from student's current rentals
-            studentRentals.remove(isbn);
+            long returnedDue;
+            synchronized (holds.lock(isbn)) {
+                boolean waiting;
+                synchronized (activeRentals.lock(student)) {
+                    if (!activeRentals.remove(student, isbn)) {
+                        // this student never rented (or already returned) this book
+                        return rejected(EventType.RETURN, RejectReason.NOT_RENTED);
+                    }
 
-            // append RETURN log
-            StudentFileLog log = new StudentFileLog(logsDir, studentId);
-            log.append(EventType.RETURN, isbn, book.getTitle());
+                    // with students waiting the copy stays checked out and goes to the first of them
+                    waiting = holds.hasWaiters(isbn);
+                    if (!waiting) {
+                        // mutate inventory, checkin() is also the global safety check
+                        boolean released = false;
+                        try {
+                            released = catalog.checkin(book);
+                        }
+                        finally {
+                            if (!released) {
+                                // put the holding back so the student can retry
+                                activeRentals.add(student, isbn);
+                            }
+                        }
+                        if (!released) {
+                            return rejected(EventType.RETURN, RejectReason.NOT_CHECKED_OUT);
+                        }
+                    }
+                    returnedDue = dueDates.dueAt(student, activeRentals.isbnId(isbn));
+                    dueDates.cancel(student, activeRentals.isbnId(isbn));
+                }
+                if (waiting) {
+                    int next = handOff(book, dueAt);
+                    if (next >= 0) {
+                        logHandOff(next, book, now, dueAt);
+                    }
+                }
+            }
+            metrics.getInventoryLatency().record(System.nanoTime() - looked);
 
-            return true;
+            // queue the RETURN log, the committer writes it with the catalog delta in one batch
+            byte[] record = StudentFileLog.encode(now, EventType.RETURN, isbn, book.getTitle());
+            return committer.submit(studentId, EventType.RETURN, record, () -> undoReturn(student, book, returnedDue));
         } 
         catch (Exception e) {
-            return false;
+            return rejected(EventType.RETURN, RejectReason.ERROR);
         }
     }
 
-    private Set<String> rentalsFor(String studentId) {
-        return activeRentals.computeIfAbsent(studentId, id -> ConcurrentHashMap.newKeySet());
+    private static EventStore openEvents(LogBackend backend, Path dataDir, Path logsDir) {
+        if (backend == LogBackend.FILES) {
+            return new FileEventStore(logsDir);
+        }
+        try {
+            SegmentedEventLog log = new SegmentedEventLog(dataDir.resolve("events"));
+            log.importIfEmpty(logsDir); // first start after switching from per-student logs
+            return log;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
-    private void rebuildActiveRentalsForStudent(String studentId) {
+    private static LibraryOptions durabilityOnly(DurabilityPolicy policy) {
+        LibraryOptions options = new LibraryOptions();
+        options.setDurability(policy);
+        return options;
+    }
 
-        // path for student log
-        Path studentLogFile = logsDir.resolve(studentId + ".bin");
-        if (!Files.exists(studentLogFile)) return;
+    // fails with RejectedExecutionException when the request queue is full or the service is shut down
+    private <T> CompletableFuture<T> async(Supplier<T> task) {
+        try {
+            return CompletableFuture.supplyAsync(task, requests);
+        }
+        catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
 
-        try (DataInputStream in = new DataInputStream(
-                new BufferedInputStream(Files.newInputStream(studentLogFile)))) {
+    // books for the isbns, unknown and repeated isbns are recorded in reasons instead
+    private List<Book> lookupBooks(List<String> isbns, Map<String, RejectReason> reasons, RejectReason repeated) {
+        List<Book> books = new ArrayList<>(isbns.size());
+        Set<String> seen = new HashSet<>();
+        for (String isbn : isbns) {
+            Optional<Book> book = catalog.get(isbn);
+            if (!seen.add(isbn)) {
+                reasons.put(isbn, repeated);
+            }
+            else if (book.isEmpty()) {
+                reasons.put(isbn, RejectReason.UNKNOWN_BOOK);
+            }
+            else {
+                books.add(book.get());
+            }
+        }
+        return books;
+    }
 
-            // local map: isbn -> net count
-            java.util.Map<String, Integer> counts = new java.util.HashMap<>();
+    // due date of a rental starting at now, 0 when rentals have none
+    private long dueFrom(long now) {
+        return loanMillis > 0 ? now + loanMillis : 0;
+    }
 
-            while (true) {
-                try {
-                    long ts   = in.readLong(); // timestamp
-                    byte code = in.readByte(); // enum type
-                    String isbn  = in.readUTF(); // isbn
-                    String title = in.readUTF(); // title
+    // caller holds lock(student)
+    private void scheduleDue(int student, String isbn, long dueAt) {
+        if (dueAt > 0) {
+            dueDates.schedule(student, activeRentals.isbnId(isbn), dueAt);
+        }
+    }
 
-                    EventType type = EventType.values()[code];
-                    counts.merge(isbn, type == EventType.RENT ? 1 : -1, Integer::sum);
-                } catch (EOFException eof) {
-                    break;
+    // caller holds the isbn's lock and a copy of the book that is still checked out; the copy goes to
+    // the first waiting student who can take it, or back to the catalog when nobody can (-1)
+    private int handOff(Book book, long dueAt) throws IOException {
+        while (holds.hasWaiters(book.getIsbn())) {
+            int next = holds.poll(book.getIsbn());
+            synchronized (activeRentals.lock(next)) {
+                if (activeRentals.add(next, book.getIsbn())) {
+                    scheduleDue(next, book.getIsbn(), dueAt);
+                    return next;
                 }
             }
+            // already renting it, the hold had nothing left to wait for
+        }
+        catalog.checkin(book);
+        return -1;
+    }
 
-            // any isbn with count > 0 is currently held by this student
-            java.util.Set<String> rentals = rentalsFor(studentId);
-            rentals.clear();
-            counts.forEach((isbn, c) -> {
-                if (c > 0) rentals.add(isbn);
-            });
+    // the RENT of a handed-over copy, replaying it also ends the student's hold; queued under the
+    // isbn's lock so it lands after the student's HOLD and before their RETURN of the copy
+    private void logHandOff(int student, Book book, long now, long dueAt) throws IOException {
+        byte[] record = StudentFileLog.encode(now, EventType.RENT, book.getIsbn(), book.getTitle(), dueAt);
+        committer.submit(activeRentals.studentId(student), EventType.RENT, record, () -> undoRent(student, book));
+    }
+
+    // puts back a return whose RETURN record could not be written, so the student holds the book again
+    // as the log still says; the copy comes out of the catalog again, a copy handed to a waiting
+    // student stays with them, so when every copy is out by now the return has to stand
+    private void undoReturn(int student, Book book, long dueAt) {
+        try {
+            synchronized (holds.lock(book.getIsbn())) {
+                synchronized (activeRentals.lock(student)) {
+                    if (activeRentals.holds(student, book.getIsbn()) || !catalog.checkout(book)) {
+                        return; // rented again meanwhile, or no copy left to take back
+                    }
+                    activeRentals.add(student, book.getIsbn());
+                    scheduleDue(student, book.getIsbn(), dueAt);
+                }
+            }
+        }
+        catch (IOException ignored) {} // the checkout's journal write failed, the return stands
+    }
+
+    // takes back a hold whose HOLD record could not be written; a student handed a copy meanwhile keeps
+    // it, that RENT stands in the log on its own
+    private void undoHold(int student, String isbn) {
+        synchronized (holds.lock(isbn)) {
+            holds.remove(isbn, student);
+        }
+        serveHolds(isbn); // a copy that came free meanwhile goes to whoever waits now
+    }
+
+    // puts a hold back whose CANCEL_HOLD record could not be written, in its old place, since that is
+    // where the log still has it
+    private void undoCancelHold(int student, String isbn, long ticket) {
+        synchronized (holds.lock(isbn)) {
+            if (!holds.contains(isbn, student)) {
+                holds.restore(isbn, student, ticket);
+            }
+        }
+        serveHolds(isbn); // a copy may have gone back to the catalog while nobody was queued
+    }
+
+    // takes back a rental whose RENT record could not be written, so memory and catalog agree with the
+    // log again; the copy goes on to the next waiting student or back to the catalog
+    private void undoRent(int student, Book book) {
+        try {
+            synchronized (holds.lock(book.getIsbn())) {
+                synchronized (activeRentals.lock(student)) {
+                    if (!activeRentals.remove(student, book.getIsbn())) {
+                        return; // returned meanwhile, the return already released the copy
+                    }
+                    dueDates.cancel(student, activeRentals.isbnId(book.getIsbn()));
+                }
+                if (!holds.hasWaiters(book.getIsbn())) {
+                    catalog.checkin(book);
+                    return;
+                }
+                long now = System.currentTimeMillis();
+                long dueAt = dueFrom(now);
+                int next = handOff(book, dueAt);
+                if (next >= 0) {
+                    logHandOff(next, book, now, dueAt);
+                }
+            }
+        }
+        catch (IOException ignored) {} // the checkin's journal write failed, nothing left to take back
+    }
+
+    // moves the due dates to now and publishes the rentals that fell due on the way
+    private void advanceDueDates() {
+        List<DueWheel.Entry> due = dueDates.advance(System.currentTimeMillis());
+        if (overdueNotices.hasSubscribers()) {
+            for (DueWheel.Entry entry : due) {
+                overdueNotices.publish(overdueRental(entry));
+            }
+        }
+    }
+
+    private OverdueRental overdueRental(DueWheel.Entry entry) {
+        return new OverdueRental(activeRentals.studentId(entry.student), activeRentals.isbn(entry.isbn), entry.dueAt);
+    }
+
+    // runs the action while holding every monitor from index on, in list order
+    private static <T> T synchronizedAll(List<Object> monitors, int index, Supplier<T> action) {
+        if (index == monitors.size()) {
+            return action.get();
+        }
+        synchronized (monitors.get(index)) {
+            return synchronizedAll(monitors, index + 1, action);
+        }
+    }
+
+    private CompletableFuture<BatchResult> refused(EventType type, List<String> items, Map<String, RejectReason> reasons) {
+        reasons.values().forEach(reason -> metrics.rejected(type, reason));
+        return CompletableFuture.completedFuture(new BatchResult(false, items, reasons));
+    }
 
+    // inventory is already applied, only the log write can still fail, like a single rent
+    private static BatchResult durable(boolean ok, List<String> items) {
+        Map<String, RejectReason> reasons = new LinkedHashMap<>();
+        if (!ok) {
+            items.forEach(item -> reasons.put(item, RejectReason.LOG_FAILED));
+        }
+        return new BatchResult(ok, items, reasons);
+    }
+
+    private CompletableFuture<Boolean> rejected(EventType type, RejectReason reason) {
+        metrics.rejected(type, reason);
+        return CompletableFuture.completedFuture(false);
+    }
+
+    private void dumpMetrics() {
+        if (metricsFile == null) {
+            return;
+        }
+        try {
+            metrics.dump(metricsFile);
+        }
+        catch (IOException ignored) {} // next tick writes it again
+    }
+
+    // recovered receives the student's entry as of the end of their log, the next checkpoint's base
+    private void rebuildActiveRentalsForStudent(String studentId, RentalCheckpoint.Entry checkpoint,
+                                                Map<String, RentalCheckpoint.Entry> recovered) {
+
+        try {
+            RentalCheckpoint.Entry replayed = replayLog(studentId, checkpoint);
+            Map<String, Long> held = replayed.getHoldings();
+            Map<String, Long> waiting = replayed.getHolds();
+            if (held.isEmpty() && replayed.getLogOffset() == 0) {
+                return; // nothing recorded for this student yet
+            }
+            recovered.put(studentId, replayed);
+
+            int student = activeRentals.student(studentId);
+            synchronized (activeRentals.lock(student)) {
+                for (String isbn : activeRentals.holdings(student)) {
+                    dueDates.cancel(student, activeRentals.isbnId(isbn));
+                }
+                activeRentals.replace(student, held.keySet());
+                held.forEach((isbn, dueAt) -> scheduleDue(student, isbn, dueAt));
+            }
+            waiting.forEach((isbn, ticket) -> holds.restore(isbn, student, ticket));
         } 
         catch (IOException e) {}
     }
 
 
+    // holdings and holds as of the end of the student's log: the checkpoint unless the log no longer
+    // matches it, plus the events it does not cover; the log must not grow meanwhile
+    private RentalCheckpoint.Entry replayLog(String studentId, RentalCheckpoint.Entry checkpoint) throws IOException {
+        long size = events.position(studentId);
+
+        // isbn -> due date and isbn -> ticket
+        Map<String, Long> held = new HashMap<>();
+        Map<String, Long> waiting = new HashMap<>();
+        long offset = 0;
+        if (checkpoint != null && events.contains(studentId, checkpoint.getLogOffset())) {
+            held.putAll(checkpoint.getHoldings());
+            waiting.putAll(checkpoint.getHolds());
+            offset = checkpoint.getLogOffset();
+        }
+
+        if (size > offset) {
+            events.replay(studentId, offset, (type, isbn, extra) -> {
+                // the latest event for an isbn decides whether it is held or waited for
+                switch (type) {
+                    case RENT:
+                        held.put(isbn, extra);
+                        waiting.remove(isbn); // a handed-over copy ends the hold
+                        break;
+                    case RETURN:
+                        held.remove(isbn);
+                        break;
+                    case HOLD:
+                        waiting.put(isbn, extra);
+                        break;
+                    case CANCEL_HOLD:
+                        waiting.remove(isbn);
+                        break;
+                }
+            });
+        }
+        return new RentalCheckpoint.Entry(size, held, waiting);
+    }
+
     public Path getDataDir() {
         return logsDir;
     }
 
     public void shutdown() {
+        maintenance.shutdown();
+        requests.shutdown(); // queued requests still run and reach the committer
+        try {
+            requests.awaitTermination(REQUEST_DRAIN_SECONDS, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
         pool.shutdown();
+        committer.close(); // drains queued events first
+        try {
+            writeCheckpoint(); // committer is stopped, nothing else writes the logs now
+        }
+        catch (IOException ignored) {}
+        events.close();
+        try {
+            catalog.close();
+        }
+        catch (IOException ignored) {}
+        try {
+            registry.close();
+        }
+        catch (IOException ignored) {}
+        dumpMetrics(); // final numbers, including the shutdown saves
     }
 }
@@ -0,0 +1,7 @@
+package final_project;
+
+// which EventStore LibraryService writes rental events to
+public enum LogBackend {
+    FILES,     // FileEventStore, one logs/<id>.bin per student
+    SEGMENTED  // SegmentedEventLog, one append-only log in events/ rolled into fixed-size segments
+}
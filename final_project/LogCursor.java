@@ -0,0 +1,52 @@
+package final_project;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// pages through the entries a history had when the cursor was opened, later appends are not included
+public class LogCursor {
+
+    private final StudentHistory history;
+    private final int pageSize;
+    private final boolean newestFirst;
+    private final long total;
+    private long next; // newest first: entries before this are still unread, otherwise the next entry
+
+    public LogCursor(StudentHistory history, int pageSize, boolean newestFirst) throws IOException {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize must be positive");
+        }
+        this.history = history;
+        this.pageSize = pageSize;
+        this.newestFirst = newestFirst;
+        this.total = history.size();
+        this.next = newestFirst ? total : 0;
+    }
+
+    public synchronized boolean hasNext() {
+        return newestFirst ? next > 0 : next < total;
+    }
+
+    // empty once every entry has been returned
+    public synchronized List<LogEntry> nextPage() throws IOException {
+        if (!hasNext()) {
+            return new ArrayList<>();
+        }
+        if (newestFirst) {
+            long first = Math.max(0, next - pageSize);
+            List<LogEntry> page = history.read(first, (int) (next - first));
+            Collections.reverse(page);
+            next = first;
+            return page;
+        }
+        List<LogEntry> page = history.read(next, (int) Math.min(pageSize, total - next));
+        next += page.size();
+        return page;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+}
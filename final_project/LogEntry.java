@@ -0,0 +1,67 @@
+package final_project;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+// one decoded record of a student log
+public class LogEntry {
+
+    private static final DateTimeFormatter FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+
+    private final long timestamp;
+    private final EventType type;
+    private final String isbn;
+    private final String title;
+    private final long extra; // due date of a RENT, queue ticket of a HOLD, 0 = none
+
+    public LogEntry(long timestamp, EventType type, String isbn, String title) {
+        this(timestamp, type, isbn, title, 0);
+    }
+
+    public LogEntry(long timestamp, EventType type, String isbn, String title, long extra) {
+        this.timestamp = timestamp;
+        this.type = type;
+        this.isbn = isbn;
+        this.title = title;
+        this.extra = extra;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public EventType getType() {
+        return type;
+    }
+
+    public String getIsbn() {
+        return isbn;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public long getDueAt() {
+        return type == EventType.RENT ? extra : 0;
+    }
+
+    // position of a HOLD in its isbn's queue, holds are served in ticket order
+    public long getTicket() {
+        return type == EventType.HOLD ? extra : 0;
+    }
+
+    // the record's long field whatever it means, what a re-encode needs
+    long getExtra() {
+        return extra;
+    }
+
+    // the line the Student Logs tab shows
+    @Override
+    public String toString() {
+        String line = FORMAT.format(Instant.ofEpochMilli(timestamp)) + " - " + type + " - " + title + " (" + isbn + ")";
+        return getDueAt() > 0 ? line + " - due " + FORMAT.format(Instant.ofEpochMilli(getDueAt())) : line;
+    }
+}
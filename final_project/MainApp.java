@@ -1,5 +1,6 @@
 package final_project;
 
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
@@ -13,12 +14,23 @@ import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.layout.*;
 import javafx.stage.Stage;
 
+import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.Executors;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 
 public class MainApp extends Application {
 
+    // most rows the book search shows at once
+    private static final int SEARCH_LIMIT = 200;
+    // log entries fetched per scroll step
+    private static final int LOG_PAGE_SIZE = 100;
+
     // library service: to store students (BinaryStudentRegistry) and books (LibraryCatalog)
     private LibraryService service;
 
@@ -30,9 +42,26 @@ public class MainApp extends Application {
     // TableView for displaying rows/columns of students and books
     private TableView<Student> studentTable;
     private TableView<Book> bookTable;
+    private TextField bookSearchField;
     // ListView to display student logs
     private ListView<Student> studentListView;
     private ListView<String> logListView;
+    // pages of the selected student's log, newest first, and whether a page is being read
+    private LogCursor logCursor;
+    private boolean logPageLoading;
+
+    // catalog and registry changes from the service threads, applied once per frame by changeTimer;
+    // a later change to the same row replaces the one still waiting
+    private final Map<String, BookChange> pendingBooks = new ConcurrentHashMap<>();
+    private final Map<String, StudentChange> pendingStudents = new ConcurrentHashMap<>();
+    private final AtomicBoolean booksReloaded = new AtomicBoolean();
+    private final AtomicBoolean studentsReloaded = new AtomicBoolean();
+    private final List<Runnable> subscriptions = new ArrayList<>();
+    private AnimationTimer changeTimer;
+
+    // isbn / student id -> row in bookData / studentData
+    private final Map<String, Integer> bookRows = new HashMap<>();
+    private final Map<String, Integer> studentRows = new HashMap<>();
 
     @Override
     public void start(Stage stage) {
@@ -55,6 +84,31 @@ public class MainApp extends Application {
         stage.setTitle("Campus Library Management System");
         stage.setScene(scene);
         stage.show();
+
+        // from now on only the rows that changed are updated
+        subscriptions.add(service.getCatalog().changes().subscribe(change -> {
+            if (change.getKind() == ChangeKind.RELOADED) {
+                booksReloaded.set(true);
+            }
+            else {
+                pendingBooks.put(change.getIsbn(), change);
+            }
+        }));
+        subscriptions.add(service.getRegistry().changes().subscribe(change -> {
+            if (change.getKind() == ChangeKind.RELOADED) {
+                studentsReloaded.set(true);
+            }
+            else {
+                pendingStudents.put(change.getId(), change);
+            }
+        }));
+        changeTimer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                applyChanges();
+            }
+        };
+        changeTimer.start();
     }
 
     private MenuBar createMenuBar(Stage stage) {
@@ -175,8 +229,7 @@ public class MainApp extends Application {
             String yearText = yearField.getText().trim();
 
             Student student = createNewStudent(id, name, program, yearText);
-            if (student != null) service.getRegistry().addOrUpdateStudent(student);
-            refreshStudents();
+            if (student != null) service.getRegistry().addOrUpdateStudent(student); // the change feed adds the row
         });
 
         // add controls to the horizontal form
@@ -219,8 +272,10 @@ public class MainApp extends Application {
         bookTable.getColumns().addAll(isbnColumn, titleColumn, totalColumn, checkedColumn, availableColumn);
         bookTable.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY);
 
-
-
+        // search box above the table, filters the rows on every keystroke through the title index
+        bookSearchField = new TextField();
+        bookSearchField.setPromptText("Search titles");
+        bookSearchField.textProperty().addListener((obs, old, text) -> refreshBooks());
 
 
 
@@ -249,7 +304,10 @@ public class MainApp extends Application {
             String copies = copiesField.getText().trim();
 
             Book book = createNewBook(isbn, title, copies);
-            if (book != null) service.getCatalog().add(book);
+            if (book != null) {
+                service.getCatalog().add(book);
+                service.serveHolds(book.getIsbn()); // new copies go to students waiting first
+            }
         });
 
         // add controls to the horizontal form
@@ -260,7 +318,7 @@ public class MainApp extends Application {
 
 
         // add to a vbox and set internal padding of 8 units
-        VBox box = new VBox(bookTable);
+        VBox box = new VBox(5, bookSearchField, bookTable);
         box.getChildren().add(pane);
         box.setPadding(new Insets(8));
         return box;
@@ -272,6 +330,18 @@ public class MainApp extends Application {
         studentListView = new ListView<>(studentData);
         logListView = new ListView<>(logData);
 
+        // the next page is read once the last loaded entry scrolls into view
+        logListView.setCellFactory(list -> new ListCell<>() {
+            @Override
+            protected void updateItem(String item, boolean empty) {
+                super.updateItem(item, empty);
+                setText(empty ? null : item);
+                if (!empty && getIndex() == logData.size() - 1) {
+                    loadNextLogPage();
+                }
+            }
+        });
+
         // when the studentListView has one of its elements selected, load the logs for the selected (sel) using its id
         studentListView.getSelectionModel().selectedItemProperty().addListener((obs, old, sel) -> {
 
@@ -280,6 +350,7 @@ public class MainApp extends Application {
                 loadLogsFor(sel.getId());
             } 
             else {
+                logCursor = null;
                 logData.clear();
             }
         });
@@ -294,31 +365,118 @@ public class MainApp extends Application {
     private void refreshStudents() {
         // update student list
         studentData.setAll(service.getRegistry().listAll());
+        indexRows(studentData, studentRows, Student::getId);
     }
 
     private void refreshBooks() {
-        // update book list
-        bookData.setAll(service.getCatalog().all());
+        // update book list, only the matches while a search is active
+        String query = bookSearchField == null ? "" : bookSearchField.getText().trim();
+        if (query.isEmpty()) {
+            bookData.setAll(service.getCatalog().all());
+        }
+        else {
+            bookData.setAll(service.getCatalog().search(query, SEARCH_LIMIT));
+        }
+        indexRows(bookData, bookRows, Book::getIsbn);
+    }
+
+    // runs every frame on the javafx thread, the work is proportional to the rows that changed
+    private void applyChanges() {
+        if (booksReloaded.getAndSet(false)) {
+            pendingBooks.clear();
+            refreshBooks();
+        }
+        boolean searching = bookSearchField != null && !bookSearchField.getText().trim().isEmpty();
+        for (String isbn : pendingBooks.keySet()) {
+            BookChange change = pendingBooks.remove(isbn);
+            int row = rowOf(bookData, bookRows, isbn, Book::getIsbn);
+            if (row >= 0) {
+                bookData.set(row, change.getBook()); // a replace makes the row read its cells again
+            }
+            else if (change.getKind() == ChangeKind.ADDED && !searching) {
+                bookRows.put(isbn, bookData.size());
+                bookData.add(change.getBook());
+            }
+        }
+
+        if (studentsReloaded.getAndSet(false)) {
+            pendingStudents.clear();
+            refreshStudents();
+        }
+        for (String id : pendingStudents.keySet()) {
+            StudentChange change = pendingStudents.remove(id);
+            int row = rowOf(studentData, studentRows, id, Student::getId);
+            if (row >= 0) {
+                studentData.set(row, change.getStudent());
+            }
+            else {
+                studentRows.put(id, studentData.size());
+                studentData.add(change.getStudent());
+            }
+        }
+    }
+
+    private static <T> void indexRows(List<T> items, Map<String, Integer> rows, Function<T, String> keyOf) {
+        rows.clear();
+        for (int i = 0; i < items.size(); i++) {
+            rows.put(keyOf.apply(items.get(i)), i);
+        }
+    }
+
+    // row of the key or -1, sorting a table reorders its items, so a stale map is rebuilt first
+    private static <T> int rowOf(List<T> items, Map<String, Integer> rows, String key, Function<T, String> keyOf) {
+        Integer row = rows.get(key);
+        if (row == null) {
+            return -1; // sorting never changes which keys are shown
+        }
+        if (row < items.size() && keyOf.apply(items.get(row)).equals(key)) {
+            return row;
+        }
+        indexRows(items, rows, keyOf);
+        return rows.getOrDefault(key, -1);
     }
 
     private void loadLogsFor(String studentId) {
 
-        // create threadpool to load the logs for the student
-        Executors.newSingleThreadExecutor().submit(() -> {
-            try {
-                // create StudentFileLog which uses thread-safe access to the appropriate log file
-                StudentFileLog log = new StudentFileLog(service.getDataDir(), studentId);
-                List<String> lines = log.readAllPretty(); // get logs from the file
+        // start over from the newest entry, only the first page is read now
+        try {
+            logCursor = service.openLog(studentId, LOG_PAGE_SIZE);
+        }
+        catch (IOException ex) {
+            logCursor = null;
+            showAlert(Alert.AlertType.ERROR, "Failed to read logs: " + ex.getMessage());
+            return;
+        }
+        logPageLoading = false;
+        logData.clear();
+        loadNextLogPage();
+    }
 
-                // notify the javafx thread when the threadpool is done
-                Platform.runLater(() -> {
-                    logData.setAll(lines);
-                });
-            } 
-            catch (Exception ex) {
-                // notify the javafx thread when the threadpool is done
-                Platform.runLater(() -> showAlert(Alert.AlertType.ERROR, "Failed to read logs: " + ex.getMessage()));
-            }
+    private void loadNextLogPage() {
+        LogCursor cursor = logCursor;
+        if (cursor == null || logPageLoading || !cursor.hasNext()) {
+            return;
+        }
+        logPageLoading = true;
+
+        // the service reads the page on one of its request threads
+        service.nextLogPageAsync(cursor).whenComplete((page, ex) -> {
+            // notify the javafx thread when the read is done
+            Platform.runLater(() -> {
+                if (cursor != logCursor) {
+                    return; // another student was selected meanwhile
+                }
+                logPageLoading = false;
+                if (ex != null) {
+                    showAlert(Alert.AlertType.ERROR, "Failed to read logs: " + rootMessage(ex));
+                    return;
+                }
+                List<String> lines = new ArrayList<>(page.size());
+                for (LogEntry entry : page) {
+                    lines.add(entry.toString());
+                }
+                logData.addAll(lines); // one change event per page
+            });
         });
     }
 
@@ -365,7 +523,6 @@ public class MainApp extends Application {
                 service.getRegistry().save();
             } 
             catch (Exception ignored) {}
-            refreshStudents(); // update the student list
         });
     }
 
@@ -405,11 +562,11 @@ public class MainApp extends Application {
         // show the dialog and wait for the book b to be processed
         dialog.showAndWait().ifPresent(b -> {
             service.getCatalog().add(b); // add the book
+            service.serveHolds(b.getIsbn()); // new copies go to students waiting first
             try {
                 service.getCatalog().save(); // save to the catalog
             } 
             catch (Exception ignored) {}
-            refreshBooks();
         });
     }
 
@@ -506,19 +663,17 @@ public class MainApp extends Application {
                 return;
             }
 
-            // create threads
-            var taskExecutor = Executors.newSingleThreadExecutor();
-            taskExecutor.submit(() -> {
-                // thread-safe way to rent the books
-                boolean ok = service.rentBook(studentId, isbn);
+            // thread-safe way to rent the books, runs on the service's request threads
+            service.rentBookAsync(studentId, isbn).whenComplete((ok, ex) -> {
                 Platform.runLater(() -> { // notify the javafx application thread
-                    if (!ok) { // cannot rent the book
+                    if (ex != null) { // the service is too busy or shutting down
+                        showAlert(Alert.AlertType.ERROR, "Rent failed: " + rootMessage(ex));
+                    }
+                    else if (!ok) { // cannot rent the book
                         showAlert(Alert.AlertType.ERROR, "Rent failed");
                     } 
                     else {
-                        // refresh the book list
-                        refreshBooks();
-
+                        // the book's row is updated by the change feed
                         // check if the studentListView is selected and that the id is the same as the current id
                         if (studentListView.getSelectionModel().getSelectedItem() != null && 
                             studentListView.getSelectionModel().getSelectedItem().getId().equals(studentId)) {
@@ -576,20 +731,17 @@ public class MainApp extends Application {
                 return;
             }
 
-            // multithreading
-            var taskExecutor = Executors.newSingleThreadExecutor();
-
-            // run thread
-            taskExecutor.submit(() -> {
-                boolean ok = service.returnBook(studentId, isbn); // return book method
+            // return book method, runs on the service's request threads
+            service.returnBookAsync(studentId, isbn).whenComplete((ok, ex) -> {
                 Platform.runLater(() -> {
-                    if (!ok) { // if we cannot rent the book
+                    if (ex != null) { // the service is too busy or shutting down
+                        showAlert(Alert.AlertType.ERROR, "Return failed: " + rootMessage(ex));
+                    }
+                    else if (!ok) { // if we cannot rent the book
                         showAlert(Alert.AlertType.ERROR, "Return failed");
                     } 
                     else {
-                        // refresh the book list
-                        refreshBooks();
-                        // update the logs (if selected)
+                        // the book's row is updated by the change feed, update the logs (if selected)
                         if (studentListView.getSelectionModel().getSelectedItem() != null &&
                             studentListView.getSelectionModel().getSelectedItem().getId().equals(studentId)) {
                             loadLogsFor(studentId);
@@ -600,6 +752,14 @@ public class MainApp extends Application {
         });
     }
 
+    // message of the underlying failure, not of the CompletionException wrapped around it
+    private static String rootMessage(Throwable ex) {
+        while (ex.getCause() != null) {
+            ex = ex.getCause();
+        }
+        return ex.getMessage() != null ? ex.getMessage() : ex.getClass().getSimpleName();
+    }
+
     private void showAlert(Alert.AlertType type, String msg) {
         Alert alert = new Alert(type, msg, ButtonType.OK);
         alert.setHeaderText(null);
@@ -608,6 +768,10 @@ public class MainApp extends Application {
 
     @Override
     public void stop() {
+        if (changeTimer != null) {
+            changeTimer.stop();
+        }
+        subscriptions.forEach(Runnable::run);
         service.shutdown();
     }
 
@@ -0,0 +1,430 @@
+package final_project;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// student registry kept in two memory-mapped files instead of a heap HashMap
+//
+//   students.rec  header (int magic, short version, short pad, long end) followed by records,
+//                 each record is an int length and the same payload students.dat uses
+//   students.idx  header (int magic, short version, short pad, int capacity, int size) followed by
+//                 open-addressing slots, each slot is a long: 24 hash bits << 40 | record offset
+//
+// updates append a new record and repoint the slot, so the old record becomes dead space; a new or
+// grown index is written to students.idx.tmp and moved over students.idx once forced, so a crash leaves
+// either the old table or the complete new one. students.rec alone is enough to start from, a missing
+// index is rebuilt by reading the records in order
+public class MappedStudentRegistry implements StudentRegistry {
+
+    private static final int RECORD_MAGIC = 0x53524543; // "SREC"
+    private static final int INDEX_MAGIC = 0x53494458; // "SIDX"
+    private static final short VERSION = 1;
+
+    private static final int RECORD_HEADER = 16;
+    private static final int INDEX_HEADER = 16;
+    private static final int INITIAL_CAPACITY = 1024; // slots, always a power of two
+    private static final long INITIAL_RECORD_BYTES = 1 << 20;
+    private static final long OFFSET_MASK = (1L << 40) - 1;
+
+    private final Path baseDir;
+    private final Path recordFile;
+    private final Path indexFile;
+    private final Path indexTemp;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock(); // remapping takes the write side
+
+    private FileChannel recordChannel;
+    private FileChannel indexChannel;
+    private MappedByteBuffer records;
+    private MappedByteBuffer index;
+    private long recordEnd; // next free byte in students.rec
+    private int capacity;
+    private int size;
+
+    // what listAll() hands out, decoded once per change instead of once per call
+    private final PublishedList<Student> students = new PublishedList<>(this::decodeAll);
+    private final ChangeFeed<StudentChange> changes = new ChangeFeed<>();
+
+    // default constructor
+    public MappedStudentRegistry(Path baseDir) {
+        this.baseDir = baseDir;
+        this.recordFile = baseDir.resolve("students.rec");
+        this.indexFile = baseDir.resolve("students.idx");
+        this.indexTemp = baseDir.resolve("students.idx.tmp");
+    }
+
+    // maps the files, nothing is deserialized, an existing students.dat is imported once
+    @Override
+    public void load() throws IOException, ClassNotFoundException {
+        boolean fresh;
+
+        lock.writeLock().lock();
+        try {
+            closeFiles();
+            students.invalidate();
+            Files.createDirectories(baseDir);
+            Files.deleteIfExists(indexTemp); // a rebuild that never got moved in
+            fresh = !Files.exists(recordFile);
+
+            recordChannel = FileChannel.open(recordFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+            if (fresh) {
+                // new files: empty record area and an empty table
+                records = recordChannel.map(FileChannel.MapMode.READ_WRITE, 0, INITIAL_RECORD_BYTES);
+                records.putInt(0, RECORD_MAGIC);
+                records.putShort(4, VERSION);
+                recordEnd = RECORD_HEADER;
+                records.putLong(8, recordEnd);
+
+                size = 0;
+                writeIndex(INITIAL_CAPACITY, new long[0], 0);
+            }
+            else {
+                records = recordChannel.map(FileChannel.MapMode.READ_WRITE, 0, recordChannel.size());
+                if (records.getInt(0) != RECORD_MAGIC || records.getShort(4) != VERSION) {
+                    throw new IOException("Unexpected file type: " + recordFile);
+                }
+                recordEnd = records.getLong(8);
+
+                if (Files.exists(indexFile)) {
+                    indexChannel = FileChannel.open(indexFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                    index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, indexChannel.size());
+                    if (index.getInt(0) != INDEX_MAGIC || index.getShort(4) != VERSION) {
+                        throw new IOException("Unexpected file type: " + indexFile);
+                    }
+                    capacity = index.getInt(8);
+                    size = index.getInt(12);
+                }
+                else {
+                    rebuildIndex();
+                }
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+        changes.publish(new StudentChange(ChangeKind.RELOADED, null));
+
+        // one-time import from the heap registry's snapshot
+        if (fresh && Files.exists(baseDir.resolve("students.dat"))) {
+            BinaryStudentRegistry legacy = new BinaryStudentRegistry(baseDir);
+            legacy.load();
+            for (Student s : legacy.listAll()) {
+                addOrUpdateStudent(s);
+            }
+            save();
+        }
+    }
+
+    // every write already lives in the mapping, this only forces it to disk
+    @Override
+    public void save() throws IOException {
+        lock.readLock().lock();
+        try {
+            if (records != null) {
+                records.force();
+                index.force();
+            }
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void addOrUpdateStudent(Student s) {
+        boolean insert;
+        lock.writeLock().lock();
+        try {
+            ensureLoaded();
+            byte[] idBytes = utf(s.getId());
+            int hash = hash(idBytes);
+
+            // append the record
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            BinaryStudentRegistry.writeStudent(s, new DataOutputStream(bytes));
+            long offset = recordEnd;
+            ensureRecordSpace(offset + 4 + bytes.size());
+            records.putInt((int) offset, bytes.size());
+            records.put((int) offset + 4, bytes.toByteArray());
+            recordEnd = offset + 4 + bytes.size();
+            records.putLong(8, recordEnd);
+
+            // point the id's slot at the new record
+            int slot = findSlot(idBytes, hash);
+            insert = index.getLong(slotPosition(slot)) == 0;
+            index.putLong(slotPosition(slot), ((long) (hash & 0xFFFFFF) << 40) | offset);
+            students.invalidate();
+            if (insert) {
+                size++;
+                index.putInt(12, size);
+                if (size * 2 > capacity) {
+                    grow(); // keep the table at most half full so probes stay short
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+        changes.publish(new StudentChange(insert ? ChangeKind.ADDED : ChangeKind.UPDATED, s));
+    }
+
+    @Override
+    public Optional<Student> findById(String id) {
+        lock.readLock().lock();
+        try {
+            if (records == null) {
+                return Optional.empty();
+            }
+            byte[] idBytes = utf(id);
+            long slotValue = index.getLong(slotPosition(findSlot(idBytes, hash(idBytes))));
+            if (slotValue == 0) {
+                return Optional.empty();
+            }
+            return Optional.of(readRecord(slotValue & OFFSET_MASK));
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // unmodifiable and shared between callers until the next change
+    @Override
+    public List<Student> listAll() {
+        return students.get();
+    }
+
+    @Override
+    public ChangeFeed<StudentChange> changes() {
+        return changes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (records != null) {
+                records.force();
+                index.force();
+            }
+            closeFiles();
+            students.invalidate();
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // every student in the mapping
+    private List<Student> decodeAll() {
+        lock.readLock().lock();
+        try {
+            List<Student> result = new ArrayList<>(size);
+            if (records == null) {
+                return result;
+            }
+            for (int slot = 0; slot < capacity; slot++) {
+                long slotValue = index.getLong(slotPosition(slot));
+                if (slotValue != 0) {
+                    result.add(readRecord(slotValue & OFFSET_MASK));
+                }
+            }
+            return result;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // linear probing: the slot holding the id, or the empty slot where it belongs
+    private int findSlot(byte[] idBytes, int hash) {
+        int mask = capacity - 1;
+        long hashBits = (long) (hash & 0xFFFFFF) << 40;
+        int slot = hash & mask;
+
+        while (true) {
+            long slotValue = index.getLong(slotPosition(slot));
+            if (slotValue == 0) {
+                return slot;
+            }
+            // compare the stored hash bits first, only then the id bytes of the record
+            if ((slotValue & ~OFFSET_MASK) == hashBits && idMatches(slotValue & OFFSET_MASK, idBytes)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    // the id is the first field of the payload: unsigned short length + modified utf-8 bytes
+    private boolean idMatches(long offset, byte[] idBytes) {
+        int position = (int) offset + 4;
+        if (records.getShort(position) != (short) (idBytes.length - 2)) {
+            return false;
+        }
+        for (int i = 2; i < idBytes.length; i++) {
+            if (records.get(position + i) != idBytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Student readRecord(long offset) throws IOException {
+        int length = records.getInt((int) offset);
+        byte[] payload = new byte[length];
+        records.get((int) offset + 4, payload);
+        return BinaryStudentRegistry.readStudent(new DataInputStream(new ByteArrayInputStream(payload)), VERSION);
+    }
+
+    // a table for the records alone; they are read in the order they were appended, so an id's last
+    // record is the one its slot ends up pointing at
+    private void rebuildIndex() throws IOException {
+        Map<String, Long> latest = new HashMap<>();
+        long offset = RECORD_HEADER;
+        while (offset < recordEnd) {
+            int length = records.getInt((int) offset);
+            byte[] idBytes = new byte[(records.getShort((int) offset + 4) & 0xFFFF) + 2];
+            records.get((int) offset + 4, idBytes);
+            String id = new DataInputStream(new ByteArrayInputStream(idBytes)).readUTF();
+            latest.put(id, ((long) (hash(idBytes) & 0xFFFFFF) << 40) | offset);
+            offset += 4 + length;
+        }
+
+        long[] live = new long[latest.size()];
+        int n = 0;
+        for (long slotValue : latest.values()) {
+            live[n++] = slotValue;
+        }
+        int slots = INITIAL_CAPACITY;
+        while (n * 2 > slots) {
+            slots *= 2;
+        }
+        size = n;
+        writeIndex(slots, live, n);
+    }
+
+    private void grow() throws IOException {
+        // copy the live slots out, then insert them into a table twice the size
+        long[] live = new long[size];
+        int n = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            long slotValue = index.getLong(slotPosition(slot));
+            if (slotValue != 0) {
+                live[n++] = slotValue;
+            }
+        }
+        writeIndex(capacity * 2, live, n);
+    }
+
+    // builds a table of the given capacity holding the first n slot values in students.idx.tmp, forces it,
+    // moves it over students.idx and maps it; the current index stays intact until the move
+    private void writeIndex(int slots, long[] live, int n) throws IOException {
+        long bytes = INDEX_HEADER + (long) slots * 8;
+        try (FileChannel temp = FileChannel.open(indexTemp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer mapped = temp.map(FileChannel.MapMode.READ_WRITE, 0, bytes); // zeroed
+            mapped.putInt(0, INDEX_MAGIC);
+            mapped.putShort(4, VERSION);
+            mapped.putInt(8, slots);
+            mapped.putInt(12, n);
+
+            int mask = slots - 1;
+            for (int i = 0; i < n; i++) {
+                long offset = live[i] & OFFSET_MASK;
+                int length = records.getShort((int) offset + 4) & 0xFFFF;
+                byte[] idBytes = new byte[length + 2];
+                records.get((int) offset + 4, idBytes);
+                int slot = hash(idBytes) & mask;
+                while (mapped.getLong(slotPosition(slot)) != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                mapped.putLong(slotPosition(slot), live[i]);
+            }
+            mapped.force();
+        }
+
+        // the records the new table points at have to be on disk before it is
+        records.force();
+        if (indexChannel != null) {
+            indexChannel.close();
+        }
+        Files.move(indexTemp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        indexChannel = FileChannel.open(indexFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+        capacity = slots;
+    }
+
+    private void ensureRecordSpace(long needed) throws IOException {
+        if (needed <= records.capacity()) {
+            return;
+        }
+        long newSize = records.capacity();
+        while (newSize < needed) {
+            newSize *= 2;
+        }
+        if (newSize > Integer.MAX_VALUE) {
+            throw new IOException("students.rec is full");
+        }
+        records.force();
+        records = recordChannel.map(FileChannel.MapMode.READ_WRITE, 0, newSize);
+    }
+
+    private void ensureLoaded() throws IOException {
+        if (records == null) {
+            throw new IOException("Registry not loaded");
+        }
+    }
+
+    private void closeFiles() throws IOException {
+        records = null;
+        index = null;
+        if (recordChannel != null) {
+            recordChannel.close();
+            recordChannel = null;
+        }
+        if (indexChannel != null) {
+            indexChannel.close();
+            indexChannel = null;
+        }
+    }
+
+    private static int slotPosition(int slot) {
+        return INDEX_HEADER + slot * 8;
+    }
+
+    // same bytes writeUTF produces, including the two length bytes
+    private static byte[] utf(String id) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(id.length() + 2);
+        new DataOutputStream(bytes).writeUTF(id);
+        return bytes.toByteArray();
+    }
+
+    private static int hash(byte[] idBytes) {
+        int h = 1;
+        for (int i = 2; i < idBytes.length; i++) {
+            h = 31 * h + idBytes[i];
+        }
+        h *= 0x9E3779B9; // spread the bits before masking
+        return h ^ (h >>> 16);
+    }
+}
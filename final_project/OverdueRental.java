@@ -0,0 +1,27 @@
+package final_project;
+
+// one rental past its due date
+public class OverdueRental {
+
+    private final String studentId;
+    private final String isbn;
+    private final long dueAt;
+
+    public OverdueRental(String studentId, String isbn, long dueAt) {
+        this.studentId = studentId;
+        this.isbn = isbn;
+        this.dueAt = dueAt;
+    }
+
+    public String getStudentId() {
+        return studentId;
+    }
+
+    public String getIsbn() {
+        return isbn;
+    }
+
+    public long getDueAt() {
+        return dueAt;
+    }
+}
@@ -0,0 +1,56 @@
+package final_project;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+// immutable copy of a store's values, built by the first read after a change and then shared by
+// every reader until the next change, so repeated listings take no lock and copy nothing
+//
+// every copy is tagged with the version read before it was taken; a change that lands during the
+// copy bumps the version, so that copy is never served again
+class PublishedList<T> {
+
+    private final Supplier<Collection<T>> source;
+    private final AtomicLong version = new AtomicLong();
+    private final AtomicReference<Published<T>> published = new AtomicReference<>();
+
+    PublishedList(Supplier<Collection<T>> source) {
+        this.source = source;
+    }
+
+    List<T> get() {
+        long current = version.get();
+        Published<T> p = published.get();
+        if (p != null && p.version == current) {
+            return p.list;
+        }
+
+        List<T> list = List.copyOf(source.get());
+        published.compareAndSet(p, new Published<>(current, list)); // a concurrent reader may have won, same content
+        return list;
+    }
+
+    // called after the change is visible in the source
+    void invalidate() {
+        version.incrementAndGet();
+    }
+
+    // bumped by every change, equal versions mean get() returns the same list
+    long version() {
+        return version.get();
+    }
+
+    private static class Published<T> {
+
+        private final long version;
+        private final List<T> list;
+
+        Published(long version, List<T> list) {
+            this.version = version;
+            this.list = list;
+        }
+    }
+}
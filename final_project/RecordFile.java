@@ -0,0 +1,127 @@
+package final_project;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.function.Consumer;
+
+// compact snapshot format shared by the registry and the catalog
+//
+//   header:  int magic, short version, int record count
+//   record:  varint payload length, payload (fields written with DataOutput)
+//
+// the length prefix lets a reader skip fields added by a newer version of a record
+public final class RecordFile {
+
+    public interface RecordWriter<T> {
+        void write(T record, DataOutput out) throws IOException;
+    }
+
+    public interface RecordReader<T> {
+        T read(DataInput in, short version) throws IOException;
+    }
+
+    private RecordFile() {}
+
+    // true when the file was written by ObjectOutputStream (the format before this one)
+    public static boolean isLegacy(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return in.read() == 0xAC && in.read() == 0xED;
+        }
+    }
+
+    public static <T> void write(Path file, int magic, short version, Collection<T> records, RecordWriter<T> writer) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+
+        // one reusable buffer to measure each record before writing its length
+        ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(128);
+        DataOutputStream recordOut = new DataOutputStream(recordBytes);
+
+        try (FileOutputStream fileOut = new FileOutputStream(temp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 16))) {
+
+            out.writeInt(magic);
+            out.writeShort(version);
+            out.writeInt(records.size());
+
+            for (T record : records) {
+                recordBytes.reset();
+                writer.write(record, recordOut);
+                writeVarInt(out, recordBytes.size());
+                recordBytes.writeTo(out);
+            }
+
+            out.flush();
+            fileOut.getFD().sync();
+        }
+
+        // swap in atomically so a crash keeps the previous snapshot
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // streams the records to the sink one at a time, nothing is buffered
+    public static <T> void read(Path file, int magic, short maxVersion, RecordReader<T> reader, Consumer<T> sink) throws IOException {
+        try (CountingInputStream counter = new CountingInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+             DataInputStream in = new DataInputStream(counter)) {
+
+            if (in.readInt() != magic) {
+                throw new IOException("Unexpected file type: " + file);
+            }
+            short version = in.readShort();
+            if (version < 1 || version > maxVersion) {
+                throw new IOException("Unsupported version " + version + ": " + file);
+            }
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                int length = readVarInt(in);
+                long start = counter.getCount();
+
+                sink.accept(reader.read(in, version));
+
+                // skip whatever a newer writer appended to the record
+                long remaining = length - (counter.getCount() - start);
+                if (remaining < 0) {
+                    throw new IOException("Corrupt record " + i + ": " + file);
+                }
+                in.skipNBytes(remaining);
+            }
+        }
+    }
+
+    // 7 bits per byte, high bit set while more bytes follow, most records need a single byte
+    static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed length");
+    }
+
+    // nullable strings are a presence flag followed by the UTF value
+    public static void writeNullableUTF(DataOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    public static String readNullableUTF(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -6,11 +6,11 @@ import java.util.concurrent.Callable;
 public class RecordMatcher implements Callable<Optional<Student>> {
 
     // default parameters
-    private final BinaryStudentRegistry registry;
+    private final StudentRegistry registry;
     private final String studentId;
 
     // default constructor
-    public RecordMatcher(BinaryStudentRegistry registry, String studentId) {
+    public RecordMatcher(StudentRegistry registry, String studentId) {
         this.registry = registry;
         this.studentId = studentId;
     }
@@ -0,0 +1,6 @@
+package final_project;
+
+// progress callback for startup recovery of active rentals, may be called from pool threads
+public interface RecoveryListener {
+    void onProgress(int done, int total);
+}
@@ -0,0 +1,7 @@
+package final_project;
+
+// which StudentRegistry implementation LibraryService uses
+public enum RegistryBackend {
+    HEAP,   // BinaryStudentRegistry, students.dat loaded into a HashMap
+    MAPPED  // MappedStudentRegistry, students.rec + students.idx mapped into memory
+}
@@ -0,0 +1,15 @@
+package final_project;
+
+// why a rent or return was refused, counted per operation by LibraryMetrics
+public enum RejectReason {
+    UNKNOWN_STUDENT,
+    UNKNOWN_BOOK,
+    ALREADY_RENTED,  // student already holds this isbn
+    NO_COPY,         // every copy is checked out
+    NOT_RENTED,      // return of a book the student does not hold
+    NOT_CHECKED_OUT, // catalog has no copy out to take back
+    ALREADY_QUEUED,  // student already waits for this isbn
+    NOT_QUEUED,      // cancel of a hold the student does not have
+    LOG_FAILED,      // inventory changed but the event could not be made durable
+    ERROR
+}
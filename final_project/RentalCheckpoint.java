@@ -0,0 +1,130 @@
+package final_project;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+public class RentalCheckpoint {
+
+    private static final int MAGIC = 0x52434B50; // "RCKP"
+    private static final short VERSION = 3; // 2 adds a due date per isbn, 3 the waiting holds
+
+    private final Path checkpointFile;
+
+    // default constructor
+    public RentalCheckpoint(Path baseDir) {
+        this(baseDir, "rentals.ckpt");
+    }
+
+    // offsets only mean something to the event store that produced them, so each store gets its own file
+    public RentalCheckpoint(Path baseDir, String fileName) {
+        this.checkpointFile = baseDir.resolve(fileName);
+    }
+
+    // holdings and holds of one student plus how far into their log they reach
+    public static class Entry {
+
+        private final long logOffset;
+        private final Map<String, Long> holdings;
+        private final Map<String, Long> holds;
+
+        public Entry(long logOffset, Map<String, Long> holdings, Map<String, Long> holds) {
+            this.logOffset = logOffset;
+            this.holdings = holdings;
+            this.holds = holds;
+        }
+
+        public long getLogOffset() {
+            return logOffset;
+        }
+
+        // isbn -> due date, 0 = none
+        public Map<String, Long> getHoldings() {
+            return holdings;
+        }
+
+        // isbn -> ticket of every hold still waiting
+        public Map<String, Long> getHolds() {
+            return holds;
+        }
+    }
+
+    // write every entry to a temp file, fsync it, then swap it in
+    public void write(Map<String, Entry> entries) throws IOException {
+        Files.createDirectories(checkpointFile.getParent());
+        Path temp = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+
+        try (FileOutputStream file = new FileOutputStream(temp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeInt(entries.size());
+
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                out.writeUTF(e.getKey()); // student id
+                out.writeLong(e.getValue().getLogOffset()); // log length at checkpoint time
+                out.writeInt(e.getValue().getHoldings().size());
+                for (Map.Entry<String, Long> holding : e.getValue().getHoldings().entrySet()) {
+                    out.writeUTF(holding.getKey());
+                    out.writeLong(holding.getValue()); // due date
+                }
+                out.writeInt(e.getValue().getHolds().size());
+                for (Map.Entry<String, Long> hold : e.getValue().getHolds().entrySet()) {
+                    out.writeUTF(hold.getKey());
+                    out.writeLong(hold.getValue()); // ticket
+                }
+            }
+
+            out.flush();
+            file.getFD().sync();
+        }
+
+        Files.move(temp, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // empty map when there is no checkpoint or it cannot be used, callers then replay full logs
+    public Map<String, Entry> read() {
+        Map<String, Entry> entries = new HashMap<>();
+        if (!Files.exists(checkpointFile)) {
+            return entries;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(checkpointFile)))) {
+            if (in.readInt() != MAGIC) {
+                return entries;
+            }
+            short version = in.readShort();
+            if (version < 1 || version > VERSION) {
+                return entries;
+            }
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String studentId = in.readUTF();
+                long offset = in.readLong();
+                int n = in.readInt();
+                Map<String, Long> holdings = new HashMap<>(Math.max(4, n * 2));
+                for (int k = 0; k < n; k++) {
+                    String isbn = in.readUTF();
+                    holdings.put(isbn, version >= 2 ? in.readLong() : 0L);
+                }
+                Map<String, Long> holds = new HashMap<>();
+                int h = version >= 3 ? in.readInt() : 0;
+                for (int k = 0; k < h; k++) {
+                    String isbn = in.readUTF();
+                    holds.put(isbn, in.readLong());
+                }
+                entries.put(studentId, new Entry(offset, holdings, holds));
+            }
+        }
+        catch (IOException e) {
+            // a damaged checkpoint is only an optimisation lost
+            entries.clear();
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,364 @@
+package final_project;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class RentalCommitter implements Closeable {
+
+    // upper bound on events written per batch
+    private static final int MAX_BATCH = 1024;
+
+    private final LibraryCatalog catalog;
+    private final EventStore events;
+    private final DurabilityPolicy policy;
+    private final long intervalMillis;
+    private final LibraryMetrics metrics;
+
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Thread writer;
+    private volatile boolean running = true; // only cleared under this, so nothing is queued after the last drain
+
+    // INTERVAL policy: events written but not forced yet, and the logs they touched
+    private final List<Pending> unforced = new ArrayList<>();
+    private final Set<String> dirtyLogs = new LinkedHashSet<>();
+    private long lastForce = System.currentTimeMillis();
+
+    // logs written to since the last takeChanged(), so a checkpoint only folds those again
+    private final Set<String> changedLogs = ConcurrentHashMap.newKeySet();
+
+    // default constructor
+    public RentalCommitter(LibraryCatalog catalog, EventStore events, DurabilityPolicy policy, long intervalMillis,
+                           LibraryMetrics metrics) {
+        this.catalog = catalog;
+        this.events = events;
+        this.policy = policy;
+        this.intervalMillis = intervalMillis;
+        this.metrics = metrics;
+
+        // single writer thread, every file write of the rental path happens here
+        this.writer = new Thread(this::run, "rental-committer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    // queue one log record, the future completes once its batch is durable under the policy
+    // and the event is counted as succeeded or LOG_FAILED
+    public CompletableFuture<Boolean> submit(String studentId, EventType type, byte[] logRecord) {
+        return submit(studentId, type, logRecord, null);
+    }
+
+    // undo takes back what the caller already applied in memory, it runs when the record cannot be
+    // written, before the catalog deltas of its batch are flushed
+    public CompletableFuture<Boolean> submit(String studentId, EventType type, byte[] logRecord, Runnable undo) {
+        Pending pending = new Pending(studentId, type, logRecord, 1, undo);
+        boolean queued;
+        synchronized (this) {
+            queued = running && queue.add(pending);
+        }
+        if (!queued) {
+            // refused at shutdown, never reaches the log; undone outside the monitor, an undo takes
+            // service locks that callers hold while submitting
+            undo(pending);
+            complete(List.of(pending), false);
+        }
+        return pending.future;
+    }
+
+    // queue one record per student as a unit, so they normally share a batch and its journal write;
+    // each record may hold several events, e.g. every RENT of a bulk checkout in one append
+    public CompletableFuture<Boolean> submitAll(EventType type, List<String> studentIds, List<byte[]> logRecords,
+                                                int eventsPerRecord) {
+        return submitAll(type, studentIds, logRecords, eventsPerRecord, null);
+    }
+
+    // undos, when given, hold one entry per record, see submit
+    public CompletableFuture<Boolean> submitAll(EventType type, List<String> studentIds, List<byte[]> logRecords,
+                                                int eventsPerRecord, List<Runnable> undos) {
+        List<Pending> unit = new ArrayList<>(studentIds.size());
+        for (int i = 0; i < studentIds.size(); i++) {
+            unit.add(new Pending(studentIds.get(i), type, logRecords.get(i), eventsPerRecord,
+                    undos == null ? null : undos.get(i)));
+        }
+
+        boolean queued;
+        synchronized (this) {
+            queued = running && queue.addAll(unit);
+        }
+        if (!queued) {
+            unit.forEach(RentalCommitter::undo);
+            complete(unit, false);
+        }
+
+        CompletableFuture<?>[] futures = unit.stream().map(p -> p.future).toArray(CompletableFuture[]::new);
+        return CompletableFuture.allOf(futures).thenApply(v -> unit.stream().allMatch(p -> p.future.join()));
+    }
+
+    // run a task on the writer thread between batches, once everything queued before it is written and
+    // durable, so no log write is in flight while it runs and every log ends in durable records
+    public CompletableFuture<Void> runExclusive(Runnable task) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        Runnable wrapped = () -> {
+            try {
+                if (Thread.currentThread() == writer) {
+                    commitQueued();
+                }
+                task.run();
+                done.complete(null);
+            }
+            catch (RuntimeException e) {
+                done.completeExceptionally(e);
+            }
+        };
+
+        boolean queued;
+        synchronized (this) {
+            queued = running && writer.isAlive() && tasks.add(wrapped);
+        }
+        if (!queued) {
+            // nothing is writing any more, the caller's thread is just as exclusive
+            wrapped.run();
+        }
+        return done;
+    }
+
+    // the logs written to or marked since the last call; meant for runExclusive tasks, when no write is
+    // in flight
+    public Set<String> takeChanged() {
+        Set<String> taken = new HashSet<>();
+        for (Iterator<String> it = changedLogs.iterator(); it.hasNext(); ) {
+            taken.add(it.next());
+            it.remove();
+        }
+        return taken;
+    }
+
+    // a log that changed outside the committer, e.g. by compaction
+    public void markChanged(String studentId) {
+        changedLogs.add(studentId);
+    }
+
+    public DurabilityPolicy getPolicy() {
+        return policy;
+    }
+
+    // events waiting for the writer thread
+    public int queued() {
+        return queue.size();
+    }
+
+    // stop accepting events, write and force everything queued, then stop the thread
+    @Override
+    public void close() {
+        // no interrupt, that would close the FileChannels mid-write, the poll timeout picks this up
+        synchronized (this) {
+            running = false;
+        }
+        try {
+            writer.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<Pending> batch = new ArrayList<>(MAX_BATCH);
+
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(pollMillis(), TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH - 1); // everything that piled up meanwhile
+                    commit(batch);
+                    batch.clear();
+                }
+                else if (policy == DurabilityPolicy.INTERVAL) {
+                    forceIfDue(false);
+                }
+                runTasks();
+            }
+            catch (InterruptedException e) {
+                // keep draining, close() is the only way out
+            }
+        }
+
+        // events that raced with close() are still written
+        queue.drainTo(batch);
+        if (!batch.isEmpty()) {
+            commit(batch);
+        }
+
+        // nothing may stay unforced after shutdown
+        if (policy == DurabilityPolicy.INTERVAL) {
+            forceIfDue(true);
+        }
+        runTasks();
+    }
+
+    // writes the events queued so far and, under INTERVAL, forces them right away
+    private void commitQueued() {
+        List<Pending> batch = new ArrayList<>();
+        queue.drainTo(batch);
+        if (!batch.isEmpty()) {
+            commit(batch);
+        }
+        if (policy == DurabilityPolicy.INTERVAL) {
+            forceIfDue(true);
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private long pollMillis() {
+        // short enough for close() to be noticed quickly
+        if (policy == DurabilityPolicy.INTERVAL) {
+            return Math.max(1, Math.min(intervalMillis, 100));
+        }
+        return 100;
+    }
+
+    private void commit(List<Pending> batch) {
+        Set<String> touched = new LinkedHashSet<>();
+
+        // student logs first, a failed write fails only that event
+        for (Pending p : batch) {
+            changedLogs.add(p.studentId); // before the write, a failed one may still have left bytes behind
+            try {
+                long start = System.nanoTime();
+                events.write(p.studentId, p.logRecord);
+                metrics.getLogAppendLatency().record(System.nanoTime() - start);
+                touched.add(p.studentId);
+            }
+            catch (IOException e) {
+                p.failed = true;
+            }
+        }
+
+        // rentals whose record did not make it are taken back first, their checkins journal the
+        // opposite deltas, so the flush below never makes a copy out that no log accounts for
+        for (Pending p : batch) {
+            if (p.failed) {
+                undo(p);
+            }
+        }
+
+        // every catalog delta queued by these rentals, in one write
+        boolean journalOk = true;
+        try {
+            catalog.flushJournal(policy == DurabilityPolicy.BATCH);
+        }
+        catch (IOException e) {
+            journalOk = false;
+        }
+
+        switch (policy) {
+            case NONE:
+                complete(batch, journalOk);
+                break;
+            case BATCH:
+                complete(batch, journalOk && forceLogs(touched));
+                break;
+            case INTERVAL:
+                unforced.addAll(batch);
+                dirtyLogs.addAll(touched);
+                forceIfDue(false);
+                break;
+        }
+    }
+
+    private void forceIfDue(boolean always) {
+        long now = System.currentTimeMillis();
+        if (unforced.isEmpty() || (!always && now - lastForce < intervalMillis)) {
+            return;
+        }
+
+        boolean ok = true;
+        try {
+            catalog.flushJournal(true);
+        }
+        catch (IOException e) {
+            ok = false;
+        }
+        ok &= forceLogs(dirtyLogs);
+
+        complete(unforced, ok);
+        unforced.clear();
+        dirtyLogs.clear();
+        lastForce = now;
+    }
+
+    private boolean forceLogs(Set<String> studentIds) {
+        boolean ok = true;
+        for (String studentId : studentIds) {
+            try {
+                events.force(studentId);
+            }
+            catch (IOException e) {
+                ok = false;
+            }
+        }
+        return ok;
+    }
+
+    private static void undo(Pending p) {
+        if (p.undo == null) {
+            return;
+        }
+        try {
+            p.undo.run();
+        }
+        catch (RuntimeException ignored) {} // the event is reported as failed either way
+    }
+
+    private void complete(List<Pending> events, boolean durable) {
+        for (Pending p : events) {
+            boolean ok = durable && !p.failed;
+            if (ok) {
+                metrics.succeeded(p.type, p.events);
+            }
+            else {
+                metrics.rejected(p.type, RejectReason.LOG_FAILED, p.events);
+            }
+            p.future.complete(ok);
+        }
+    }
+
+    // one queued rental event
+    private static class Pending {
+
+        private final String studentId;
+        private final EventType type;
+        private final byte[] logRecord;
+        private final int events; // log records concatenated in logRecord
+        private final Runnable undo; // null when nothing has to be taken back
+        private final CompletableFuture<Boolean> future = new CompletableFuture<>();
+        private boolean failed;
+
+        Pending(String studentId, EventType type, byte[] logRecord, int events, Runnable undo) {
+            this.studentId = studentId;
+            this.type = type;
+            this.logRecord = logRecord;
+            this.events = events;
+            this.undo = undo;
+        }
+    }
+}
@@ -0,0 +1,512 @@
+package final_project;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+// every student's events in one append-only log, rolled into fixed-size segments
+//
+//   events-<n>.seg  header (int magic, short version, short pad) followed by chunks, each chunk is
+//                   int length, UTF student id, int record count and the encoded records
+//   events.idx      per-student chunk addresses (segment << 32 | offset) up to a point in the log,
+//                   written on close; chunks after that point are indexed by scanning on open
+//
+// appends are sequential whatever the student, a student's position is the number of records
+// written for them, and their history is read by following their chunk addresses
+public class SegmentedEventLog implements EventStore {
+
+    public static final long DEFAULT_SEGMENT_BYTES = 64L << 20;
+
+    private static final int MAGIC = 0x45565347; // "EVSG"
+    private static final int INDEX_MAGIC = 0x45564958; // "EVIX"
+    private static final short VERSION = 1;
+    private static final int SEGMENT_HEADER = 8;
+
+    private final Path dir;
+    private final Path indexFile;
+    private final long segmentBytes;
+
+    // appends, rolls and index updates hold the write side, readers copy addresses under the read side
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<FileChannel> segments = new ArrayList<>(); // segment n is at index n
+    private final Map<String, Chunks> index = new HashMap<>();
+    private long activeEnd; // next free byte of the last segment
+
+    // forces run one at a time outside the write lock, appends carry on while the disk syncs
+    private final Object forceLock = new Object();
+    private long forced; // address everything before is on disk, guarded by forceLock
+
+    public SegmentedEventLog(Path dir) throws IOException {
+        this(dir, DEFAULT_SEGMENT_BYTES);
+    }
+
+    public SegmentedEventLog(Path dir, long segmentBytes) throws IOException {
+        if (segmentBytes <= SEGMENT_HEADER || segmentBytes > 1L << 32) {
+            throw new IllegalArgumentException("segmentBytes out of range");
+        }
+        this.dir = dir;
+        this.indexFile = dir.resolve("events.idx");
+        this.segmentBytes = segmentBytes;
+        open();
+    }
+
+    // one-time import of per-student logs into an empty event log, the .bin files are left in place
+    public void importIfEmpty(Path logsDir) throws IOException {
+        if (!isEmpty() || !Files.isDirectory(logsDir)) {
+            return;
+        }
+
+        List<Path> logs;
+        try (Stream<Path> files = Files.list(logsDir)) {
+            logs = files.filter(p -> p.getFileName().toString().endsWith(".bin")).sorted().toList();
+        }
+        for (Path log : logs) {
+            // read through StudentFileLog, so compacted logs come in with their archived history
+            String name = log.getFileName().toString();
+            String studentId = name.substring(0, name.length() - ".bin".length());
+            ByteArrayOutputStream records = new ByteArrayOutputStream();
+            for (LogEntry entry : new StudentFileLog(logsDir, studentId).read(0, Integer.MAX_VALUE)) {
+                records.write(StudentFileLog.encode(entry.getTimestamp(), entry.getType(), entry.getIsbn(),
+                        entry.getTitle(), entry.getExtra()));
+            }
+            write(studentId, records.toByteArray());
+        }
+        forceAll();
+    }
+
+    public boolean isEmpty() {
+        lock.readLock().lock();
+        try {
+            return segments.size() == 1 && activeEnd == SEGMENT_HEADER;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void write(String studentId, byte[] records) throws IOException {
+        int[] end = new int[1];
+        int count = completeRecords(records, end);
+        if (count == 0) {
+            return;
+        }
+
+        // chunk: length, student id, record count, records
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(end[0] + studentId.length() + 16);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0); // patched below
+        out.writeUTF(studentId);
+        out.writeInt(count);
+        out.write(records, 0, end[0]);
+        ByteBuffer chunk = ByteBuffer.wrap(bytes.toByteArray());
+        chunk.putInt(0, chunk.remaining() - 4);
+
+        lock.writeLock().lock();
+        try {
+            if (activeEnd > SEGMENT_HEADER && activeEnd + chunk.remaining() > segmentBytes) {
+                roll();
+            }
+            int segment = segments.size() - 1;
+            long offset = activeEnd;
+            writeFully(segments.get(segment), chunk, offset);
+            activeEnd += chunk.capacity();
+
+            index.computeIfAbsent(studentId, id -> new Chunks()).add(address(segment, offset), count);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // the log is shared, so this forces every student's pending writes at once
+    @Override
+    public void force(String studentId) throws IOException {
+        forceAll();
+    }
+
+    @Override
+    public long position(String studentId) {
+        lock.readLock().lock();
+        try {
+            Chunks chunks = index.get(studentId);
+            return chunks == null ? 0 : chunks.records;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // records are never rewritten here, any count up to the current one is still valid
+    @Override
+    public boolean contains(String studentId, long position) {
+        return position >= 0 && position <= position(studentId);
+    }
+
+    @Override
+    public void replay(String studentId, long position, ReplaySink sink) throws IOException {
+        long first = contains(studentId, position) ? position : 0;
+        scan(studentId, first, Long.MAX_VALUE, entry -> sink.accept(entry.getType(), entry.getIsbn(), entry.getExtra()));
+    }
+
+    @Override
+    public StudentHistory history(String studentId) {
+        return new StudentHistory() {
+            @Override
+            public long size() {
+                return position(studentId);
+            }
+
+            @Override
+            public List<LogEntry> read(long first, int count) throws IOException {
+                List<LogEntry> entries = new ArrayList<>();
+                if (first >= 0 && count > 0) {
+                    scan(studentId, first, count, entries::add);
+                }
+                return entries;
+            }
+        };
+    }
+
+    // forces the active segment and writes the index, so the next open scans nothing
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            if (segments.isEmpty()) {
+                return;
+            }
+            try {
+                segments.get(segments.size() - 1).force(false);
+                writeIndex();
+            }
+            catch (IOException ignored) {} // the segments are complete, the next open scans them instead
+            for (FileChannel channel : segments) {
+                try {
+                    channel.close();
+                }
+                catch (IOException ignored) {}
+            }
+            segments.clear();
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // only the active segment and the end of the log are read under the lock, earlier segments were
+    // forced when they rolled; a caller that finds a force of its writes under way waits for it instead
+    // of issuing another
+    private void forceAll() throws IOException {
+        synchronized (forceLock) {
+            FileChannel active;
+            long end;
+            lock.readLock().lock();
+            try {
+                active = segments.get(segments.size() - 1);
+                end = address(segments.size() - 1, activeEnd);
+            }
+            finally {
+                lock.readLock().unlock();
+            }
+            if (end <= forced) {
+                return;
+            }
+            active.force(false);
+            forced = end;
+        }
+    }
+
+    // decodes up to limit of the student's records, starting at record number first
+    private void scan(String studentId, long first, long limit, Consumer<LogEntry> sink) throws IOException {
+        long[] addresses;
+        long[] starts;
+
+        lock.readLock().lock();
+        try {
+            Chunks chunks = index.get(studentId);
+            if (chunks == null || first >= chunks.records) {
+                return;
+            }
+            int from = chunks.chunkOf(first);
+            addresses = Arrays.copyOfRange(chunks.addresses, from, chunks.count);
+            starts = Arrays.copyOfRange(chunks.firstRecord, from, chunks.count);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+
+        // chunks are immutable once indexed, so they are read without the lock
+        long delivered = 0;
+        for (int i = 0; i < addresses.length && delivered < limit; i++) {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(readChunk(addresses[i])));
+            in.readUTF(); // student id
+            int count = in.readInt();
+            for (int k = 0; k < count && delivered < limit; k++) {
+                LogEntry entry = StudentFileLog.readRecord(in);
+                if (starts[i] + k >= first) {
+                    sink.accept(entry);
+                    delivered++;
+                }
+            }
+        }
+    }
+
+    // the chunk at the address without its length prefix
+    private byte[] readChunk(long address) throws IOException {
+        FileChannel channel;
+        lock.readLock().lock();
+        try {
+            channel = segments.get((int) (address >>> 32));
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+        long offset = address & 0xFFFFFFFFL;
+        ByteBuffer length = ByteBuffer.allocate(4);
+        readFully(channel, length, offset);
+        ByteBuffer chunk = ByteBuffer.allocate(length.getInt(0));
+        readFully(channel, chunk, offset + 4);
+        return chunk.array();
+    }
+
+    private void open() throws IOException {
+        Files.createDirectories(dir);
+        List<Path> files;
+        try (Stream<Path> list = Files.list(dir)) {
+            files = list.filter(p -> p.getFileName().toString().matches("events-\\d+\\.seg")).sorted().toList();
+        }
+        for (int n = 0; n < files.size(); n++) {
+            if (!files.get(n).equals(segmentPath(n))) {
+                throw new IOException("Missing event log segment: " + segmentPath(n));
+            }
+            FileChannel channel = FileChannel.open(files.get(n), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER);
+            readFully(channel, header, 0);
+            if (header.getInt(0) != MAGIC || header.getShort(4) != VERSION) {
+                channel.close();
+                throw new IOException("Unexpected file type: " + files.get(n));
+            }
+            segments.add(channel);
+        }
+        if (segments.isEmpty()) {
+            segments.add(createSegment(0));
+        }
+
+        // index snapshot first, then every chunk appended after it
+        long from = readIndex();
+        int segment = (int) (from >>> 32);
+        long offset = from & 0xFFFFFFFFL;
+        for (; segment < segments.size(); segment++, offset = SEGMENT_HEADER) {
+            FileChannel channel = segments.get(segment);
+            long size = channel.size();
+            long end = indexChunks(segment, offset, size);
+
+            if (segment == segments.size() - 1) {
+                if (end < size) {
+                    channel.truncate(end); // torn tail of an append that never completed
+                }
+                activeEnd = end;
+            }
+        }
+        forced = address(segments.size() - 1, activeEnd);
+    }
+
+    // indexes the complete chunks between offset and size, returns where the last one ends
+    private long indexChunks(int segment, long offset, long size) throws IOException {
+        FileChannel channel = segments.get(segment);
+        ByteBuffer length = ByteBuffer.allocate(4);
+        while (offset + 4 <= size) {
+            length.clear();
+            readFully(channel, length, offset);
+            int chunkLength = length.getInt(0);
+            if (chunkLength <= 0 || offset + 4 + chunkLength > size) {
+                break;
+            }
+
+            ByteBuffer chunk = ByteBuffer.allocate(chunkLength);
+            readFully(channel, chunk, offset + 4);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(chunk.array()));
+            String studentId = in.readUTF();
+            int count = in.readInt();
+            index.computeIfAbsent(studentId, id -> new Chunks()).add(address(segment, offset), count);
+            offset += 4 + chunkLength;
+        }
+        return offset;
+    }
+
+    // loads events.idx, returns the address it covers up to, or the start of the log when
+    // there is no usable index
+    private long readIndex() {
+        long start = address(0, SEGMENT_HEADER);
+        if (!Files.exists(indexFile)) {
+            return start;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (in.readInt() != INDEX_MAGIC || in.readShort() != VERSION) {
+                return start;
+            }
+            long covered = in.readLong();
+            int segment = (int) (covered >>> 32);
+            if (segment >= segments.size() || (covered & 0xFFFFFFFFL) > segments.get(segment).size()) {
+                return start; // the log is shorter than the index, rebuild it from the segments
+            }
+
+            int students = in.readInt();
+            for (int i = 0; i < students; i++) {
+                String studentId = in.readUTF();
+                int count = in.readInt();
+                Chunks chunks = new Chunks();
+                for (int k = 0; k < count; k++) {
+                    chunks.add(in.readLong(), in.readInt());
+                }
+                index.put(studentId, chunks);
+            }
+            return covered;
+        }
+        catch (IOException e) {
+            index.clear();
+            return start;
+        }
+    }
+
+    // caller holds the write lock and has forced the active segment
+    private void writeIndex() throws IOException {
+        Path temp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+
+            out.writeInt(INDEX_MAGIC);
+            out.writeShort(VERSION);
+            out.writeLong(address(segments.size() - 1, activeEnd));
+            out.writeInt(index.size());
+            for (Map.Entry<String, Chunks> e : index.entrySet()) {
+                Chunks chunks = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeInt(chunks.count);
+                for (int k = 0; k < chunks.count; k++) {
+                    long next = k + 1 < chunks.count ? chunks.firstRecord[k + 1] : chunks.records;
+                    out.writeLong(chunks.addresses[k]);
+                    out.writeInt((int) (next - chunks.firstRecord[k]));
+                }
+            }
+
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // caller holds the write lock
+    private void roll() throws IOException {
+        segments.get(segments.size() - 1).force(false); // a full segment is never touched again
+        segments.add(createSegment(segments.size()));
+        activeEnd = SEGMENT_HEADER;
+    }
+
+    private FileChannel createSegment(int n) throws IOException {
+        FileChannel channel = FileChannel.open(segmentPath(n),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER);
+        header.putInt(0, MAGIC);
+        header.putShort(4, VERSION);
+        writeFully(channel, header, 0);
+        activeEnd = SEGMENT_HEADER;
+        return channel;
+    }
+
+    private Path segmentPath(int n) {
+        return dir.resolve(String.format("events-%06d.seg", n));
+    }
+
+    private static long address(int segment, long offset) {
+        return (long) segment << 32 | offset;
+    }
+
+    // number of complete records at the start of the bytes, end[0] is set to where the last one ends
+    private static int completeRecords(byte[] records, int[] end) {
+        int count = 0;
+        int position = 0;
+        while (position + 11 <= records.length) {
+            int isbnAt = (records[position + 8] & StudentFileLog.EXTRA_FLAG) != 0 ? position + 17 : position + 9;
+            if (isbnAt + 2 > records.length) {
+                break;
+            }
+            int isbnLength = ((records[isbnAt] & 0xFF) << 8) | (records[isbnAt + 1] & 0xFF);
+            int titleAt = isbnAt + 2 + isbnLength;
+            if (titleAt + 2 > records.length) {
+                break;
+            }
+            int titleLength = ((records[titleAt] & 0xFF) << 8) | (records[titleAt + 1] & 0xFF);
+            if (titleAt + 2 + titleLength > records.length) {
+                break;
+            }
+            position = titleAt + 2 + titleLength;
+            count++;
+        }
+        end[0] = position;
+        return count;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new EOFException();
+            }
+            position += n;
+        }
+    }
+
+    // chunk addresses of one student and the record number each chunk starts at
+    private static class Chunks {
+
+        private long[] addresses = new long[4];
+        private long[] firstRecord = new long[4];
+        private int count;
+        private long records;
+
+        void add(long address, int recordCount) {
+            if (count == addresses.length) {
+                addresses = Arrays.copyOf(addresses, count * 2);
+                firstRecord = Arrays.copyOf(firstRecord, count * 2);
+            }
+            addresses[count] = address;
+            firstRecord[count] = records;
+            count++;
+            records += recordCount;
+        }
+
+        // last chunk starting at or before the record number
+        int chunkOf(long record) {
+            int low = 0;
+            int high = count - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (firstRecord[mid] <= record) {
+                    low = mid;
+                }
+                else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+    }
+}
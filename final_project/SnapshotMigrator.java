@@ -0,0 +1,58 @@
+package final_project;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+// one-time conversion of ObjectOutputStream snapshots to the RecordFile format
+// load() of the registry and the catalog call this on their own, main() converts a data directory offline
+public class SnapshotMigrator {
+
+    public static void main(String[] args) throws Exception {
+        Path dataDir = Path.of(args.length > 0 ? args[0] : "data");
+        migrate(dataDir);
+    }
+
+    // loading a legacy snapshot rewrites it in the new format
+    public static void migrate(Path dataDir) throws IOException, ClassNotFoundException {
+        BinaryStudentRegistry registry = new BinaryStudentRegistry(dataDir);
+        registry.load();
+        System.out.println("students.dat: " + registry.listAll().size() + " students");
+
+        LibraryCatalog catalog = new LibraryCatalog(dataDir);
+        try {
+            catalog.load();
+            System.out.println("catalog.dat: " + catalog.all().size() + " books");
+        }
+        finally {
+            catalog.close();
+        }
+    }
+
+    // reads the ArrayList written by the old save(), keeping only elements of the given type
+    static <T> List<T> readLegacy(Path file, Class<T> type) throws IOException, ClassNotFoundException {
+        List<T> result = new ArrayList<>();
+        try (ObjectInputStream inputStream = new ObjectInputStream(Files.newInputStream(file))) {
+            Object obj = inputStream.readObject();
+
+            // suppose we don't know the object but it's a list
+            if (obj instanceof List<?> list) {
+                for (Object listObject : list) {
+                    if (type.isInstance(listObject)) {
+                        result.add(type.cast(listObject));
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    // keep the old file next to the new one until someone deletes it by hand
+    static void backupLegacy(Path file) throws IOException {
+        Files.copy(file, file.resolveSibling(file.getFileName() + ".v0"), StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -0,0 +1,27 @@
+package final_project;
+
+// one registry change, id and student are null for RELOADED
+public class StudentChange {
+
+    private final ChangeKind kind;
+    private final String id;
+    private final Student student;
+
+    public StudentChange(ChangeKind kind, Student student) {
+        this.kind = kind;
+        this.student = student;
+        this.id = student == null ? null : student.getId();
+    }
+
+    public ChangeKind getKind() {
+        return kind;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Student getStudent() {
+        return student;
+    }
+}
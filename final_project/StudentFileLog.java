@@ -1,70 +1,327 @@
 package final_project;
 
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.time.Instant;
-import java.time.ZoneId;
-import java.time.format.DateTimeFormatter;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
 
-public class StudentFileLog {
+// one student's log: logs/<id>.bin plus, once compacted, logs/<id>.<epoch>.gz archives
+//
+// a compacted .bin starts with a holdings header followed by the live records,
+// the archives hold everything older in order, epoch 1 first
+public class StudentFileLog implements StudentHistory {
 
+    // the sparse index keeps the offset of every INDEX_STRIDE-th record
+    private static final int INDEX_STRIDE = 64;
+
+    // holdings header: int magic, short version, long epoch, long archived records, int n, n x (UTF isbn,
+    // long due date), int h, h x (UTF isbn, long ticket) of the holds still waiting; version 1 headers
+    // have no due dates and version 2 no holds; the magic can never be the high half of a record's timestamp
+    static final int HOLDINGS_MAGIC = 0x484F4C44; // "HOLD"
+    static final short HOLDINGS_VERSION = 3;
+
+    // set in a record's type byte when a long follows it: a RENT's due date or a HOLD's queue ticket;
+    // records without it stay readable
+    static final int EXTRA_FLAG = 0x80;
+
+    private final Path logsDir;
+    private final String studentId;
     private final Path logFile;
 
+    // built on first read and extended as the log grows, lets a page be read without scanning the log
+    private long[] sparse = new long[16];
+    private int sparseCount;
+    private long indexedRecords; // complete live records before indexedEnd
+    private long indexedEnd;
+    private Header indexedHeader = Header.NONE; // the header the index was built against
+
     public StudentFileLog(Path logsDir, String studentId) {
+        this.logsDir = logsDir;
+        this.studentId = studentId;
         this.logFile = logsDir.resolve(studentId + ".bin");
     }
 
     // synchronized = allowed only by 1 thread at a time
+    // opens the file for a single event, LibraryService goes through StudentLogWriters instead
     public synchronized void append(EventType type, String isbn, String title) throws IOException {
         Files.createDirectories(logFile.getParent());
 
-        // binary output with dataoutputstream
-        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(logFile, Files.exists(logFile)
-                                        ? java.nio.file.StandardOpenOption.APPEND
-                                        : java.nio.file.StandardOpenOption.CREATE)))) {
+        // binary output, one record per call
+        try (OutputStream out = Files.newOutputStream(logFile, java.nio.file.StandardOpenOption.CREATE,
+                                                               java.nio.file.StandardOpenOption.APPEND)) {
+            out.write(encode(System.currentTimeMillis(), type, isbn, title));
+        }
+    }
+
+    public static byte[] encode(long ts, EventType type, String isbn, String title) throws IOException {
+        return encode(ts, type, isbn, title, 0);
+    }
 
-            // get the current time
-            long ts = System.currentTimeMillis();
-            out.writeLong(ts); // write the time
-            out.writeByte(type.ordinal()); // Rent/Return
-            out.writeUTF(isbn); // write isbn
-            out.writeUTF(title); // write the title
+    // binary layout of one log record, shared by every writer; extra is a RENT's due date or a HOLD's
+    // ticket, 0 = none
+    public static byte[] encode(long ts, EventType type, String isbn, String title, long extra) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(ts); // write the time
+        if (extra > 0) {
+            out.writeByte(type.ordinal() | EXTRA_FLAG); // Rent/Return, due date or ticket follows
+            out.writeLong(extra);
+        }
+        else {
+            out.writeByte(type.ordinal()); // Rent/Return/Hold/CancelHold
         }
+        out.writeUTF(isbn); // write isbn
+        out.writeUTF(title); // write the title
+        return bytes.toByteArray();
     }
 
+    // every entry formatted for display, oldest first, archived entries included
     public List<String> readAllPretty() throws IOException {
-
-        // create logs arraylist
         List<String> result = new ArrayList<>();
-        if (!Files.exists(logFile)) {
+        for (LogEntry entry : read(0, Integer.MAX_VALUE)) {
+            result.add(entry.toString());
+        }
+        return result;
+    }
+
+    // number of complete records, archived and live
+    @Override
+    public synchronized long size() throws IOException {
+        extendIndex();
+        return indexedHeader.archived + indexedRecords;
+    }
+
+    // up to count entries starting at record number first (0 = oldest), in log order
+    @Override
+    public synchronized List<LogEntry> read(long first, int count) throws IOException {
+        while (true) {
+            extendIndex();
+            List<LogEntry> result = new ArrayList<>();
+            long archived = indexedHeader.archived;
+            long last = Math.min(archived + indexedRecords, first + Math.max(0, count));
+            if (first < 0 || first >= last) {
+                return result;
+            }
+
+            // archived part, only ever read from the start of each archive
+            if (first < archived) {
+                readArchived(first, Math.min(last, archived), result);
+            }
+            if (last <= archived) {
+                return result;
+            }
+
+            // live part: closest indexed record at or before the first one wanted, then skip forward
+            long from = Math.max(first, archived) - archived;
+            int slot = (int) (from / INDEX_STRIDE);
+            long record = (long) slot * INDEX_STRIDE;
+            long position = sparse[slot];
+
+            try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.READ)) {
+                if (readHeader(channel).epoch != indexedHeader.epoch) {
+                    continue; // compacted since the index was built, index the new file and retry
+                }
+                channel.position(position);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+                for (; record < from; record++) {
+                    position = skipRecord(in, position, indexedEnd);
+                }
+                for (; record < last - archived; record++) {
+                    result.add(readRecord(in));
+                }
+            }
             return result;
         }
+    }
+
+    // compacted logs: the holdings the archived records leave behind and where live records start
+    static class Header {
+
+        static final Header NONE = new Header(0, 0, new LinkedHashMap<>(), new LinkedHashMap<>(), 0);
+
+        final long epoch;
+        final long archived;
+        final Map<String, Long> holdings; // isbn -> due date, 0 = none
+        final Map<String, Long> holds; // isbn -> ticket
+        final long end;
+
+        Header(long epoch, long archived, Map<String, Long> holdings, Map<String, Long> holds, long end) {
+            this.epoch = epoch;
+            this.archived = archived;
+            this.holdings = holdings;
+            this.holds = holds;
+            this.end = end;
+        }
+    }
+
+    // the header at the start of the channel, NONE for a log that was never compacted
+    static Header readHeader(FileChannel channel) throws IOException {
+        if (channel.size() < 4) {
+            return Header.NONE;
+        }
+        channel.position(0);
+        CountingInputStream counter = new CountingInputStream(new BufferedInputStream(Channels.newInputStream(channel), 512));
+        DataInputStream in = new DataInputStream(counter);
+        if (in.readInt() != HOLDINGS_MAGIC) {
+            return Header.NONE;
+        }
+        short version = in.readShort();
+        if (version < 1 || version > HOLDINGS_VERSION) {
+            throw new IOException("Unsupported log header version");
+        }
+        long epoch = in.readLong();
+        long archived = in.readLong();
+        int n = in.readInt();
+        Map<String, Long> holdings = new LinkedHashMap<>();
+        for (int i = 0; i < n; i++) {
+            String isbn = in.readUTF();
+            holdings.put(isbn, version >= 2 ? in.readLong() : 0L);
+        }
+        Map<String, Long> holds = new LinkedHashMap<>();
+        int h = version >= 3 ? in.readInt() : 0;
+        for (int i = 0; i < h; i++) {
+            String isbn = in.readUTF();
+            holds.put(isbn, in.readLong());
+        }
+        return new Header(epoch, archived, holdings, holds, counter.getCount());
+    }
+
+    static byte[] encodeHeader(long epoch, long archived, Map<String, Long> holdings, Map<String, Long> holds)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(HOLDINGS_MAGIC);
+        out.writeShort(HOLDINGS_VERSION);
+        out.writeLong(epoch);
+        out.writeLong(archived);
+        out.writeInt(holdings.size());
+        for (Map.Entry<String, Long> holding : holdings.entrySet()) {
+            out.writeUTF(holding.getKey());
+            out.writeLong(holding.getValue());
+        }
+        out.writeInt(holds.size());
+        for (Map.Entry<String, Long> hold : holds.entrySet()) {
+            out.writeUTF(hold.getKey());
+            out.writeLong(hold.getValue());
+        }
+        return bytes.toByteArray();
+    }
 
-        // write in a specific date format
-        DateTimeFormatter fmt = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+    // archive written by the compaction that produced the given epoch: gzip of int count + records
+    static Path archiveFile(Path logsDir, String studentId, long epoch) {
+        return logsDir.resolve(studentId + "." + epoch + ".gz");
+    }
 
-        // binary input with datainputstream
-        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile.toFile())))) {
+    static LogEntry readRecord(DataInput in) throws IOException {
+        long ts = in.readLong(); // timestamp
+        int code = in.readUnsignedByte();
+        EventType type = EventType.values()[code & ~EXTRA_FLAG]; // Rent/Return/Hold/CancelHold
+        long extra = (code & EXTRA_FLAG) != 0 ? in.readLong() : 0; // due date or ticket
+        String isbn = in.readUTF(); // isbn
+        String title = in.readUTF(); // title
+        return new LogEntry(ts, type, isbn, title, extra);
+    }
 
+    // skips the record at position without decoding it, returns where the next one starts or -1
+    // when the record does not end before end; the lengths are checked before each read, so the
+    // end of the log is found without running into an EOFException
+    static long skipRecord(DataInputStream in, long position, long end) throws IOException {
+        if (position + 11 > end) {
+            return -1;
+        }
+        in.skipNBytes(8); // timestamp
+        int fixed = 9; // timestamp + type
+        if ((in.readUnsignedByte() & EXTRA_FLAG) != 0) {
+            fixed += 8;
+            if (position + fixed + 2 > end) {
+                return -1;
+            }
+            in.skipNBytes(8); // due date or ticket
+        }
+        int isbnLength = in.readUnsignedShort();
+        if (position + fixed + 4 + isbnLength > end) {
+            return -1;
+        }
+        in.skipNBytes(isbnLength);
+        int titleLength = in.readUnsignedShort();
+        long next = position + fixed + 4 + isbnLength + titleLength;
+        if (next > end) {
+            return -1;
+        }
+        in.skipNBytes(titleLength);
+        return next;
+    }
+
+    // archived records first to last - 1, epoch 1's archive holds the oldest
+    private void readArchived(long first, long last, List<LogEntry> result) throws IOException {
+        long record = 0;
+        for (long epoch = 1; epoch <= indexedHeader.epoch && record < last; epoch++) {
+            Path archive = archiveFile(logsDir, studentId, epoch);
+            if (!Files.exists(archive)) {
+                continue;
+            }
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(archive))))) {
+                int count = in.readInt();
+                for (int i = 0; i < count && record < last; i++, record++) {
+                    LogEntry entry = readRecord(in);
+                    if (record >= first) {
+                        result.add(entry);
+                    }
+                }
+            }
+        }
+    }
+
+    // indexes the records appended since the last call, a log that was compacted or shrank is indexed again
+    private void extendIndex() throws IOException {
+        if (!Files.exists(logFile)) {
+            reset(Header.NONE);
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.READ)) {
+            long end = channel.size();
+            Header header = readHeader(channel);
+            if (header.epoch != indexedHeader.epoch || end < indexedEnd || indexedEnd < header.end) {
+                reset(header);
+            }
+            if (end == indexedEnd) {
+                return;
+            }
+
+            long position = indexedEnd;
+            channel.position(position);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
             while (true) {
-                try {
-                    long ts         = inputStream.readLong(); // read timestamp
-                    byte code       = inputStream.readByte(); // read enum Rent/Return
-                    String isbn     = inputStream.readUTF(); // read ISBN
-                    String title    = inputStream.readUTF(); // read title
-
-                    EventType type = EventType.values()[code];
-                    String timeStr = fmt.format(Instant.ofEpochMilli(ts));
-                    result.add(timeStr + " - " + type + " - " + title + " (" + isbn + ")"); // formatting
-                } 
-                catch (EOFException eof) {
-                    break;
+                long next = skipRecord(in, position, end);
+                if (next < 0) {
+                    break; // end of file, or a record still being written
                 }
+                if (indexedRecords % INDEX_STRIDE == 0) {
+                    if (sparseCount == sparse.length) {
+                        sparse = Arrays.copyOf(sparse, sparseCount * 2);
+                    }
+                    sparse[sparseCount++] = position;
+                }
+                indexedRecords++;
+                position = next;
             }
+            indexedEnd = position;
         }
-        return result;
+    }
+
+    private void reset(Header header) {
+        indexedHeader = header;
+        sparseCount = 0;
+        indexedRecords = 0;
+        indexedEnd = header.end;
     }
 }
\ No newline at end of file
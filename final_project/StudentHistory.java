@@ -0,0 +1,23 @@
+package final_project;
+
+import java.io.IOException;
+import java.util.List;
+
+// the rental events of one student in the order they were logged, paged by LogCursor
+public interface StudentHistory {
+
+    // number of complete records
+    long size() throws IOException;
+
+    // up to count entries starting at record number first (0 = oldest)
+    List<LogEntry> read(long first, int count) throws IOException;
+
+    // pages of at most pageSize entries, newest first
+    default LogCursor cursor(int pageSize) throws IOException {
+        return new LogCursor(this, pageSize, true);
+    }
+
+    default LogCursor cursor(int pageSize, boolean newestFirst) throws IOException {
+        return new LogCursor(this, pageSize, newestFirst);
+    }
+}
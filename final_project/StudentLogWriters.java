@@ -0,0 +1,189 @@
+package final_project;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class StudentLogWriters implements Closeable {
+
+    // default number of log files kept open at once
+    public static final int DEFAULT_MAX_OPEN = 256;
+
+    private final Path logsDir;
+    private final int maxOpen;
+    private volatile boolean dirCreated;
+
+    // studentId -> writer, access-ordered so the eldest entry is the least recently used
+    private final LinkedHashMap<String, Writer> open;
+
+    // default constructor
+    public StudentLogWriters(Path logsDir) {
+        this(logsDir, DEFAULT_MAX_OPEN);
+    }
+
+    public StudentLogWriters(Path logsDir, int maxOpen) {
+        if (maxOpen < 1) {
+            throw new IllegalArgumentException("maxOpen must be positive");
+        }
+        this.logsDir = logsDir;
+        this.maxOpen = maxOpen;
+        this.open = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Writer> eldest) {
+                if (size() <= StudentLogWriters.this.maxOpen) {
+                    return false;
+                }
+                // idle handle, close it before dropping it from the pool
+                eldest.getValue().close();
+                return true;
+            }
+        };
+    }
+
+    // append one event to the student's log through the shared writer
+    public void append(String studentId, EventType type, String isbn, String title) throws IOException {
+        write(studentId, StudentFileLog.encode(System.currentTimeMillis(), type, isbn, title));
+    }
+
+    // append an already encoded record
+    public void write(String studentId, byte[] record) throws IOException {
+        while (true) {
+            Writer writer = acquire(studentId);
+
+            // one writer per student, so writes to the same file are serialized here
+            synchronized (writer) {
+                if (writer.closed) {
+                    // evicted between acquire and lock, get a fresh one
+                    continue;
+                }
+                writer.write(record);
+                return;
+            }
+        }
+    }
+
+    // fsync the student's log, reopening it if the handle was evicted after the write
+    public void force(String studentId) throws IOException {
+        while (true) {
+            Writer writer = acquire(studentId);
+            synchronized (writer) {
+                if (writer.closed) {
+                    continue;
+                }
+                writer.force();
+                return;
+            }
+        }
+    }
+
+    // runs the action holding the student's writer with its channel closed, so no write reaches the
+    // log meanwhile and the next one reopens whatever file is at the log's path by then
+    public void exclusive(String studentId, IOAction action) throws IOException {
+        while (true) {
+            Writer writer = acquire(studentId);
+            synchronized (writer) {
+                if (writer.closed) {
+                    continue;
+                }
+                writer.release();
+                action.run();
+                return;
+            }
+        }
+    }
+
+    // file work that may throw, run by exclusive()
+    public interface IOAction {
+        void run() throws IOException;
+    }
+
+    // number of handles currently open
+    public int openCount() {
+        synchronized (open) {
+            return open.size();
+        }
+    }
+
+    @Override
+    public void close() {
+        List<Writer> writers;
+        synchronized (open) {
+            writers = new ArrayList<>(open.values());
+            open.clear();
+        }
+        for (Writer writer : writers) {
+            writer.close();
+        }
+    }
+
+    private Writer acquire(String studentId) throws IOException {
+        if (!dirCreated) {
+            Files.createDirectories(logsDir);
+            dirCreated = true;
+        }
+        synchronized (open) {
+            // the channel itself is opened lazily outside this lock
+            return open.computeIfAbsent(studentId, id -> new Writer(logsDir.resolve(id + ".bin")));
+        }
+    }
+
+    // long-lived append handle for a single student log
+    private static class Writer {
+
+        private final Path file;
+        private FileChannel channel;
+        private boolean closed;
+
+        Writer(Path file) {
+            this.file = file;
+        }
+
+        // caller holds the monitor
+        void write(byte[] record) throws IOException {
+            ensureOpen();
+            ByteBuffer buffer = ByteBuffer.wrap(record);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        // caller holds the monitor
+        void force() throws IOException {
+            ensureOpen();
+            channel.force(false);
+        }
+
+        private void ensureOpen() throws IOException {
+            if (channel == null) {
+                channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            }
+        }
+
+        // caller holds the monitor, the writer stays usable and reopens lazily
+        void release() throws IOException {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        }
+
+        synchronized void close() {
+            closed = true;
+            if (channel != null) {
+                try {
+                    channel.close();
+                }
+                catch (IOException ignored) {}
+                channel = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package final_project;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+
+// student storage used by LibraryService, BinaryStudentRegistry keeps everything on the heap,
+// MappedStudentRegistry keeps the records in memory-mapped files
+public interface StudentRegistry {
+    void load() throws IOException, ClassNotFoundException;
+    void save() throws IOException;
+    void addOrUpdateStudent(Student s);
+    Optional<Student> findById(String id);
+    List<Student> listAll();
+
+    // added and updated students, published after each change
+    ChangeFeed<StudentChange> changes();
+
+    // release files and mappings, the heap registry has nothing to release
+    default void close() throws IOException {}
+}
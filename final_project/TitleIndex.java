@@ -0,0 +1,217 @@
+package final_project;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// inverted index over book titles: case-folded tokens -> ids of the books containing them
+//
+// every query term matches as a prefix, a whole-word match scores higher; the rarest term
+// produces the candidates and the other terms are checked against each candidate's own tokens
+public class TitleIndex {
+
+    private static final int EXACT_SCORE = 2;
+    private static final int PREFIX_SCORE = 1;
+
+    // token -> doc ids in ascending order
+    private final TreeMap<String, IntList> postings = new TreeMap<>();
+
+    // doc id -> book and its tokens, a null book marks a doc replaced by a later add
+    private final List<Book> docs = new ArrayList<>();
+    private final List<String[]> docTokens = new ArrayList<>();
+    private final Map<String, Integer> docByIsbn = new HashMap<>();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // index the book, replacing whatever was indexed for the same isbn
+    public void add(Book book) {
+        lock.writeLock().lock();
+        try {
+            Integer previous = docByIsbn.get(book.getIsbn());
+            if (previous != null && docs.get(previous).getTitle().equals(book.getTitle())) {
+                // same title, the postings are still right
+                docs.set(previous, book);
+                return;
+            }
+            if (previous != null) {
+                docs.set(previous, null); // stale postings are skipped at query time
+            }
+
+            int doc = docs.size();
+            String[] tokens = tokenize(book.getTitle());
+            docs.add(book);
+            docTokens.add(tokens);
+            docByIsbn.put(book.getIsbn(), doc);
+
+            for (String token : new LinkedHashSet<>(Arrays.asList(tokens))) {
+                postings.computeIfAbsent(token, t -> new IntList()).add(doc);
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            postings.clear();
+            docs.clear();
+            docTokens.clear();
+            docByIsbn.clear();
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // best matching books first, at most limit of them
+    public List<Book> search(String query, int limit) {
+        String[] terms = tokenize(query);
+        if (terms.length == 0 || limit <= 0) {
+            return new ArrayList<>();
+        }
+
+        lock.readLock().lock();
+        try {
+            // the term with the fewest postings drives the candidate set
+            String rarest = null;
+            long rarestCount = Long.MAX_VALUE;
+            for (String term : terms) {
+                long count = 0;
+                for (IntList list : prefixRange(term).values()) {
+                    count += list.size;
+                }
+                if (count == 0) {
+                    return new ArrayList<>(); // every term has to match
+                }
+                if (count < rarestCount) {
+                    rarest = term;
+                    rarestCount = count;
+                }
+            }
+
+            // bounded min-heap on score, so only the top results are kept
+            PriorityQueue<Scored> top = new PriorityQueue<>(limit + 1);
+
+            // a doc only shows up twice when several of its tokens share the prefix
+            Collection<IntList> lists = prefixRange(rarest).values();
+            Set<Integer> seen = lists.size() > 1 ? new HashSet<>() : null;
+
+            for (IntList list : lists) {
+                for (int i = 0; i < list.size; i++) {
+                    int doc = list.values[i];
+                    if (docs.get(doc) == null || (seen != null && !seen.add(doc))) {
+                        continue;
+                    }
+
+                    int score = score(docTokens.get(doc), terms);
+                    if (score < 0) {
+                        continue;
+                    }
+                    top.add(new Scored(docs.get(doc), score, docTokens.get(doc).length));
+                    if (top.size() > limit) {
+                        top.poll();
+                    }
+                }
+            }
+
+            List<Book> result = new ArrayList<>(top.size());
+            while (!top.isEmpty()) {
+                result.add(top.poll().book);
+            }
+            Collections.reverse(result);
+            return result;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // lowercase words made of letters and digits
+    static String[] tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                current.append(Character.toLowerCase(c));
+            }
+            else if (current.length() > 0) {
+                tokens.add(current.toString());
+                current.setLength(0);
+            }
+        }
+        if (current.length() > 0) {
+            tokens.add(current.toString());
+        }
+        return tokens.toArray(new String[0]);
+    }
+
+    // every token starting with the prefix
+    private SortedMap<String, IntList> prefixRange(String prefix) {
+        return postings.subMap(prefix, prefix + Character.MAX_VALUE);
+    }
+
+    // sum of the best match per term, -1 when some term matches no token of the title
+    private static int score(String[] tokens, String[] terms) {
+        int total = 0;
+        for (String term : terms) {
+            int best = 0;
+            for (String token : tokens) {
+                if (token.equals(term)) {
+                    best = EXACT_SCORE;
+                    break;
+                }
+                if (token.startsWith(term)) {
+                    best = PREFIX_SCORE;
+                }
+            }
+            if (best == 0) {
+                return -1;
+            }
+            total += best;
+        }
+        return total;
+    }
+
+    // a result with what it is ranked by: score, then shorter titles, then title order
+    private static class Scored implements Comparable<Scored> {
+
+        private final Book book;
+        private final int score;
+        private final int length;
+
+        Scored(Book book, int score, int length) {
+            this.book = book;
+            this.score = score;
+            this.length = length;
+        }
+
+        // ascending = worst first, which is what the min-heap evicts
+        @Override
+        public int compareTo(Scored other) {
+            if (score != other.score) {
+                return Integer.compare(score, other.score);
+            }
+            if (length != other.length) {
+                return Integer.compare(other.length, length);
+            }
+            return other.book.getTitle().compareTo(book.getTitle());
+        }
+    }
+
+    // growable int array, avoids boxing every posting
+    private static class IntList {
+
+        private int[] values = new int[4];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package final_project.bench;
+
+import final_project.*;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+// synthetic data directories for the benchmarks, laid out exactly like LibraryService's "data" folder
+//
+//   books     isbn "978" + i, "Title " + i, COPIES copies each
+//   students  id "S" + i, each with a log of alternating RENT/RETURN events
+public final class BenchFixture {
+
+    public static final int COPIES = 5;
+
+    private BenchFixture() {}
+
+    // temp directory with catalog.dat, students.dat and logs/
+    public static Path create(String prefix, int books, int students, int eventsPerStudent) throws IOException {
+        Path dataDir = Files.createTempDirectory(prefix);
+        writeCatalog(dataDir, books);
+        writeStudents(dataDir, students, eventsPerStudent);
+        return dataDir;
+    }
+
+    public static void writeCatalog(Path dataDir, int books) throws IOException {
+        LibraryCatalog catalog = new LibraryCatalog(dataDir);
+        try {
+            for (int i = 0; i < books; i++) {
+                catalog.add(new Book(isbn(i), "Title " + i, COPIES));
+            }
+            catalog.save();
+        }
+        finally {
+            catalog.close();
+        }
+    }
+
+    // registry snapshot plus one log per student
+    public static void writeStudents(Path dataDir, int students, int eventsPerStudent) throws IOException {
+        BinaryStudentRegistry registry = new BinaryStudentRegistry(dataDir);
+        Path logsDir = dataDir.resolve("logs");
+        Files.createDirectories(logsDir);
+
+        Random random = new Random(42);
+        long ts = System.currentTimeMillis();
+
+        for (int i = 0; i < students; i++) {
+            String id = studentId(i);
+            registry.addOrUpdateStudent(new Student(id, "Student " + i, "Program " + (i % 12), 1 + i % 4));
+            if (eventsPerStudent == 0) {
+                continue;
+            }
+
+            // alternate RENT/RETURN over a small set of titles, roughly like a real patron; each RETURN
+            // names the isbn of the RENT before it
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(logsDir.resolve(id + ".bin")))) {
+                String isbn = null;
+                for (int e = 0; e < eventsPerStudent; e++) {
+                    if (e % 2 == 0) {
+                        isbn = isbn(e / 2 + random.nextInt(3));
+                    }
+                    EventType type = e % 2 == 0 ? EventType.RENT : EventType.RETURN;
+                    out.write(StudentFileLog.encode(ts + e, type, isbn, "Title of " + isbn));
+                }
+            }
+        }
+        registry.save();
+    }
+
+    public static String isbn(int i) {
+        return "978" + i;
+    }
+
+    public static String studentId(int i) {
+        return "S" + i;
+    }
+
+    public static void delete(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+}
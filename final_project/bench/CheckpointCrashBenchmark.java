@@ -0,0 +1,120 @@
+package final_project.bench;
+
+import final_project.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+
+// a child JVM rents and returns on many threads while checkpointing in a loop and is killed mid-run, with
+// events still queued; a restart through the checkpoint must then find exactly the holdings a replay of
+// the logs alone finds, or the checkpoint recorded rentals that never reached the log. exits with 1 when not
+// usage: CheckpointCrashBenchmark [key=value ...]
+//
+//   rounds=3             kills, each one against the data the previous rounds left behind
+//   seconds=2            how long the child runs before it is killed
+//   threads=8            renting threads in the child
+//   books=200 students=2000
+public class CheckpointCrashBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> params = LibraryBenchmark.parse(args);
+        if (params.containsKey("child")) {
+            child(Path.of(params.get("child")), params);
+            return;
+        }
+        int rounds = Integer.parseInt(params.getOrDefault("rounds", "3"));
+        int seconds = Integer.parseInt(params.getOrDefault("seconds", "2"));
+        int books = Integer.parseInt(params.getOrDefault("books", "200"));
+        int students = Integer.parseInt(params.getOrDefault("students", "2000"));
+
+        Path dataDir = BenchFixture.create("crash-bench", books, students, 0);
+        int mismatches = 0;
+        for (int round = 0; round < rounds; round++) {
+            List<String> command = new ArrayList<>(List.of(
+                    Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                    "-cp", System.getProperty("java.class.path"),
+                    CheckpointCrashBenchmark.class.getName(), "child=" + dataDir));
+            command.addAll(List.of(args));
+            Process process = new ProcessBuilder(command).inheritIO().start();
+            Thread.sleep(seconds * 1000L + ThreadLocalRandom.current().nextInt(500));
+            process.destroyForcibly().waitFor(); // SIGKILL, whatever the committer still had queued is gone
+
+            Map<String, TreeSet<String>> viaCheckpoint = holdings(dataDir, students);
+            Files.deleteIfExists(dataDir.resolve("rentals.ckpt"));
+            Map<String, TreeSet<String>> viaLogs = holdings(dataDir, students);
+
+            int differ = 0;
+            for (int i = 0; i < students; i++) {
+                String studentId = BenchFixture.studentId(i);
+                if (!viaCheckpoint.get(studentId).equals(viaLogs.get(studentId))) {
+                    if (differ++ < 5) {
+                        System.out.printf("  %s checkpoint %s, logs %s%n", studentId,
+                                viaCheckpoint.get(studentId), viaLogs.get(studentId));
+                    }
+                }
+            }
+            long held = viaLogs.values().stream().mapToLong(TreeSet::size).sum();
+            System.out.printf("round %d  %d rentals held, %d students differ%n", round + 1, held, differ);
+            mismatches += differ;
+        }
+        BenchFixture.delete(dataDir);
+
+        if (mismatches > 0) {
+            System.out.println("checkpoint disagrees with the logs");
+            System.exit(1);
+        }
+        System.out.println("checkpoint matches the logs");
+    }
+
+    // what a restart recovers; the shutdown writes a fresh checkpoint, the caller decides whether to keep it
+    private static Map<String, TreeSet<String>> holdings(Path dataDir, int students) {
+        LibraryService service = new LibraryService(dataDir, DurabilityPolicy.NONE);
+        service.initDemoData();
+        HoldingsTable table = service.getActiveRentals();
+        Map<String, TreeSet<String>> result = new HashMap<>();
+        for (int i = 0; i < students; i++) {
+            String studentId = BenchFixture.studentId(i);
+            result.put(studentId, new TreeSet<>(table.holdings(table.student(studentId))));
+        }
+        service.shutdown();
+        return result;
+    }
+
+    // runs until killed: renters keep the committer's queue busy, the main thread checkpoints back to back
+    private static void child(Path dataDir, Map<String, String> params) throws Exception {
+        int threads = Integer.parseInt(params.getOrDefault("threads", "8"));
+        int books = Integer.parseInt(params.getOrDefault("books", "200"));
+        int students = Integer.parseInt(params.getOrDefault("students", "2000"));
+
+        LibraryService service = new LibraryService(dataDir, DurabilityPolicy.NONE);
+        service.initDemoData();
+        HoldingsTable table = service.getActiveRentals();
+        for (int t = 0; t < threads; t++) {
+            Thread renter = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (true) {
+                    String studentId = BenchFixture.studentId(random.nextInt(students));
+                    List<String> held = table.holdings(table.student(studentId));
+                    // submit without waiting, so plenty of events sit in the queue at any moment
+                    if (held.isEmpty() || random.nextBoolean()) {
+                        service.submitRent(studentId, BenchFixture.isbn(random.nextInt(books)));
+                    }
+                    else {
+                        service.submitReturn(studentId, held.get(random.nextInt(held.size())));
+                    }
+                }
+            });
+            renter.setDaemon(true);
+            renter.start();
+        }
+        while (true) {
+            service.checkpoint();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package final_project.bench;
+
+import final_project.*;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+// thousands of students queue for one title while renters hammer it and returns drive the hand-offs;
+// checks that copies go out in hold order and that nobody renting past the queue gets one. it checks
+// an outcome rather than a rate, so it is a plain main instead of a JmhBenchmarks method
+// usage: HoldFairnessBenchmark [key=value ...]
+//
+//   waiters=2000         students placing a hold, one thread each, all released at once
+//   renters=16           threads calling rentBook on the title the whole time
+//   durability=NONE
+//
+// the title has BenchFixture.COPIES copies, rented out before the holds start
+public class HoldFairnessBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> params = LibraryBenchmark.parse(args);
+        int waiters = Integer.parseInt(params.getOrDefault("waiters", "2000"));
+        int renters = Integer.parseInt(params.getOrDefault("renters", "16"));
+        DurabilityPolicy policy = DurabilityPolicy.valueOf(params.getOrDefault("durability", "NONE"));
+
+        // students 0 .. COPIES-1 hold the copies, then the waiters, then the renters
+        int copies = BenchFixture.COPIES;
+        Path dataDir = BenchFixture.create("hold-bench", 1, copies + waiters + renters, 0);
+        LibraryService service = new LibraryService(dataDir, policy);
+        service.initDemoData();
+        String isbn = BenchFixture.isbn(0);
+        for (int i = 0; i < copies; i++) {
+            service.rentBook(BenchFixture.studentId(i), isbn);
+        }
+
+        // renters return what they get right away, so their returns hand copies over as well
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicBoolean draining = new AtomicBoolean();
+        LongAdder rented = new LongAdder();
+        LongAdder steals = new LongAdder();
+        List<Thread> renting = new ArrayList<>();
+        for (int t = 0; t < renters; t++) {
+            String studentId = BenchFixture.studentId(copies + waiters + t);
+            Thread renter = new Thread(() -> {
+                while (running.get()) {
+                    if (service.rentBook(studentId, isbn)) {
+                        rented.increment();
+                        // no holds are added while draining, so a queue that is not empty now was not empty
+                        // when the copy was taken either
+                        if (draining.get() && !service.holdQueue(isbn).isEmpty()) {
+                            steals.increment();
+                        }
+                        service.returnBook(studentId, isbn);
+                    }
+                }
+            });
+            renter.setDaemon(true);
+            renter.start();
+            renting.add(renter);
+        }
+
+        // every waiter places its hold at the same moment
+        LatencyHistogram holdLatency = new LatencyHistogram();
+        LongAdder holdsFailed = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> waiting = new ArrayList<>();
+        for (int w = 0; w < waiters; w++) {
+            String studentId = BenchFixture.studentId(copies + w);
+            Thread waiter = new Thread(() -> {
+                try {
+                    start.await();
+                }
+                catch (InterruptedException e) {
+                    return;
+                }
+                long begin = System.nanoTime();
+                if (!service.placeHold(studentId, isbn)) {
+                    holdsFailed.increment();
+                }
+                holdLatency.record(System.nanoTime() - begin);
+            });
+            waiter.setDaemon(true);
+            waiter.start();
+            waiting.add(waiter);
+        }
+
+        long holdStart = System.nanoTime();
+        start.countDown();
+        for (Thread waiter : waiting) {
+            waiter.join();
+        }
+        long holdNanos = System.nanoTime() - holdStart;
+
+        // the order the queue settled on, every hand-off from here on has to take its head
+        List<String> order = service.holdQueue(isbn);
+        draining.set(true);
+
+        // return whatever a non-renter holds until the queue is empty, checking the queue after each return
+        LatencyHistogram returnLatency = new LatencyHistogram();
+        int served = 0;
+        int outOfOrder = 0;
+        int notHanded = 0;
+        Set<String> renterIds = new HashSet<>();
+        for (int t = 0; t < renters; t++) {
+            renterIds.add(BenchFixture.studentId(copies + waiters + t));
+        }
+        long drainStart = System.nanoTime();
+        while (!service.holdQueue(isbn).isEmpty()) {
+            String holder = null;
+            for (String id : service.holdersOf(isbn)) {
+                if (!renterIds.contains(id)) {
+                    holder = id;
+                    break;
+                }
+            }
+            if (holder == null) {
+                continue; // every copy is with a renter for the moment, their returns hand it over
+            }
+
+            long begin = System.nanoTime();
+            service.returnBook(holder, isbn);
+            returnLatency.record(System.nanoTime() - begin);
+
+            // the queue may only ever lose its head, and whoever left it holds a copy
+            List<String> left = service.holdQueue(isbn);
+            if (!left.equals(order.subList(order.size() - left.size(), order.size()))) {
+                outOfOrder++;
+            }
+            for (int i = served; i < order.size() - left.size(); i++) {
+                if (!service.getActiveRentals().holds(service.getActiveRentals().student(order.get(i)), isbn)) {
+                    notHanded++;
+                }
+            }
+            served = order.size() - left.size();
+        }
+        long drainNanos = System.nanoTime() - drainStart;
+
+        running.set(false);
+        for (Thread renter : renting) {
+            renter.join();
+        }
+
+        System.out.printf("%d copies, %d waiters, %d renters%n", copies, waiters, renters);
+        System.out.printf("holds     %d placed in %.1f ms, %d refused, p50 %.1f us, p99 %.1f us, max %.1f us%n",
+                order.size(), holdNanos / 1e6, holdsFailed.sum(),
+                holdLatency.percentile(50) / 1e3, holdLatency.percentile(99) / 1e3, holdLatency.max() / 1e3);
+        System.out.printf("hand-offs %d in %.1f ms, return p50 %.1f us, p99 %.1f us%n",
+                served, drainNanos / 1e6, returnLatency.percentile(50) / 1e3, returnLatency.percentile(99) / 1e3);
+        System.out.printf("renters   %d copies rented, %d while students were queued%n", rented.sum(), steals.sum());
+        System.out.printf("fifo      %s (%d checks out of order, %d served without a copy)%n",
+                outOfOrder == 0 && notHanded == 0 && steals.sum() == 0 ? "held" : "BROKEN", outOfOrder, notHanded);
+
+        service.shutdown();
+        BenchFixture.delete(dataDir);
+    }
+}
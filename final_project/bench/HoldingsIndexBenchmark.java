@@ -0,0 +1,148 @@
+package final_project.bench;
+
+import final_project.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+// many threads rent, return, hold and hand off a few contended isbns, then the reverse index has to
+// list exactly the students whose own holdings contain each isbn, with the catalog's counts agreeing;
+// checked again after a restart through the checkpoint and after a replay of the logs alone, exits
+// with 1 on any mismatch
+// usage: HoldingsIndexBenchmark [key=value ...]
+//
+//   threads=16           threads mixing every rental call
+//   books=20             isbns, few so that stripes and isbns are shared between threads
+//   students=500
+//   seconds=3            length of the run
+//   durability=NONE
+public class HoldingsIndexBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> params = LibraryBenchmark.parse(args);
+        int threads = Integer.parseInt(params.getOrDefault("threads", "16"));
+        int books = Integer.parseInt(params.getOrDefault("books", "20"));
+        int students = Integer.parseInt(params.getOrDefault("students", "500"));
+        int seconds = Integer.parseInt(params.getOrDefault("seconds", "3"));
+        DurabilityPolicy policy = DurabilityPolicy.valueOf(params.getOrDefault("durability", "NONE"));
+
+        Path dataDir = BenchFixture.create("index-bench", books, students, 0);
+        LibraryService service = new LibraryService(dataDir, policy);
+        service.initDemoData();
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder ops = new LongAdder();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                while (running.get()) {
+                    step(service, books, students);
+                    ops.increment();
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        List<String> failures = new ArrayList<>();
+        long held = check(service, books, "after the run", failures);
+        service.shutdown();
+
+        // recovery rebuilds both sides, first from the checkpoint, then from the logs alone
+        LibraryService reopened = new LibraryService(dataDir, policy);
+        reopened.initDemoData();
+        check(reopened, books, "after a restart", failures);
+        reopened.shutdown();
+        Files.deleteIfExists(dataDir.resolve("rentals.ckpt"));
+        LibraryService replayed = new LibraryService(dataDir, policy);
+        replayed.initDemoData();
+        check(replayed, books, "after a full replay", failures);
+        replayed.shutdown();
+        BenchFixture.delete(dataDir);
+
+        System.out.printf("%d threads, %.0f calls/s, %d rentals held at the end%n",
+                threads, ops.sum() / (double) seconds, held);
+        if (!failures.isEmpty()) {
+            failures.forEach(f -> System.out.println("MISMATCH  " + f));
+            System.exit(1);
+        }
+        System.out.println("reverse index matches the holdings");
+    }
+
+    // one random call, returns pick what the student really holds so most of them go through
+    private static void step(LibraryService service, int books, int students) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String studentId = BenchFixture.studentId(random.nextInt(students));
+        String isbn = BenchFixture.isbn(random.nextInt(books));
+        HoldingsTable table = service.getActiveRentals();
+        List<String> held = table.holdings(table.student(studentId));
+        switch (random.nextInt(6)) {
+            case 0 -> service.rentBook(studentId, isbn);
+            case 1 -> {
+                if (!held.isEmpty()) {
+                    service.returnBook(studentId, held.get(random.nextInt(held.size())));
+                }
+            }
+            case 2 -> service.rentBooks(studentId, List.of(isbn, BenchFixture.isbn(random.nextInt(books))));
+            case 3 -> {
+                if (!held.isEmpty()) {
+                    service.returnBooks(studentId, held);
+                }
+            }
+            // holds are served by returns, which moves a copy between students inside one call
+            case 4 -> {
+                if (!service.placeHold(studentId, isbn)) {
+                    service.cancelHold(studentId, isbn);
+                }
+            }
+            default -> service.submitRentToMany(isbn, List.of(studentId,
+                    BenchFixture.studentId(random.nextInt(students)))).join();
+        }
+    }
+
+    // compares holdersOf with the forward table for every isbn, returns the rentals held
+    private static long check(LibraryService service, int books, String when, List<String> failures) {
+        HoldingsTable table = service.getActiveRentals();
+        Map<String, TreeSet<String>> forward = new HashMap<>();
+        long held = 0;
+        for (int student = 0; student < table.studentCount(); student++) {
+            for (String isbn : table.holdings(student)) {
+                forward.computeIfAbsent(isbn, k -> new TreeSet<>()).add(table.studentId(student));
+                held++;
+            }
+        }
+        if (held != table.size()) {
+            failures.add(when + ": table counts " + table.size() + " rentals, students hold " + held);
+        }
+
+        for (int i = 0; i < books; i++) {
+            String isbn = BenchFixture.isbn(i);
+            List<String> holders = service.holdersOf(isbn);
+            TreeSet<String> expected = forward.getOrDefault(isbn, new TreeSet<>());
+            if (holders.size() != new TreeSet<>(holders).size()) {
+                failures.add(when + ": " + isbn + " lists a holder twice " + holders);
+            }
+            if (!new TreeSet<>(holders).equals(expected)) {
+                failures.add(when + ": " + isbn + " holders " + new TreeSet<>(holders) + ", held by " + expected);
+            }
+            int checkedOut = service.getCatalog().get(isbn).orElseThrow().getCheckedOut();
+            if (checkedOut != expected.size()) {
+                failures.add(when + ": " + isbn + " " + checkedOut + " checked out, " + expected.size() + " held");
+            }
+        }
+        return held;
+    }
+}
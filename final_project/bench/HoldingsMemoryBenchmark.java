@@ -0,0 +1,96 @@
+package final_project.bench;
+
+import final_project.HoldingsTable;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+// heap held by the active-rentals structure: the per-student ConcurrentHashMap key sets LibraryService
+// used before, against HoldingsTable, for the same students and holdings
+// usage: HoldingsMemoryBenchmark [key=value ...]
+//
+//   students=1000000
+//   books=100000
+//   held=0,1,3           books per student, each size is measured separately
+public class HoldingsMemoryBenchmark {
+
+    public static void main(String[] args) {
+        Map<String, String> params = LibraryBenchmark.parse(args);
+        int students = Integer.parseInt(params.getOrDefault("students", "1000000"));
+        int books = Integer.parseInt(params.getOrDefault("books", "100000"));
+        int[] held = LibraryBenchmark.ints(params.getOrDefault("held", "0,1,3"));
+
+        // the ids come from the registry and catalog in the service, so they are not counted
+        String[] studentIds = new String[students];
+        for (int i = 0; i < students; i++) {
+            studentIds[i] = BenchFixture.studentId(i);
+        }
+        String[] isbns = new String[books];
+        for (int i = 0; i < books; i++) {
+            isbns[i] = BenchFixture.isbn(i);
+        }
+
+        System.out.printf("%d students, %d books%n", students, books);
+        System.out.printf("%-10s %16s %16s %10s%n", "held", "key sets MB", "table MB", "ratio");
+        for (int perStudent : held) {
+            long before = usedHeap();
+            Object sets = keySets(studentIds, isbns, perStudent);
+            long setBytes = usedHeap() - before;
+            keepAlive(sets);
+            sets = null;
+
+            before = usedHeap();
+            Object table = holdingsTable(studentIds, isbns, perStudent);
+            long tableBytes = usedHeap() - before;
+            keepAlive(table);
+            table = null;
+
+            System.out.printf("%-10d %16.1f %16.1f %9.1fx%n", perStudent, setBytes / 1e6, tableBytes / 1e6,
+                    (double) setBytes / Math.max(1, tableBytes));
+        }
+    }
+
+    // the old layout, including the empty set a student got on their first rent attempt
+    private static Object keySets(String[] studentIds, String[] isbns, int perStudent) {
+        ConcurrentMap<String, Set<String>> rentals = new ConcurrentHashMap<>();
+        for (String studentId : studentIds) {
+            Set<String> set = rentals.computeIfAbsent(studentId, id -> ConcurrentHashMap.newKeySet());
+            for (int k = 0; k < perStudent; k++) {
+                set.add(isbns[ThreadLocalRandom.current().nextInt(isbns.length)]);
+            }
+        }
+        return rentals;
+    }
+
+    private static Object holdingsTable(String[] studentIds, String[] isbns, int perStudent) {
+        HoldingsTable table = new HoldingsTable();
+        for (String studentId : studentIds) {
+            int student = table.student(studentId);
+            synchronized (table.lock(student)) {
+                for (int k = 0; k < perStudent; k++) {
+                    table.add(student, isbns[ThreadLocalRandom.current().nextInt(isbns.length)]);
+                }
+            }
+        }
+        return table;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static volatile Object sink;
+
+    // keeps the structure reachable until its size has been taken
+    private static void keepAlive(Object o) {
+        sink = o;
+        sink = null;
+    }
+}
@@ -0,0 +1,152 @@
+package final_project.bench;
+
+import final_project.*;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// thousands of threads rent one isbn at the same moment, then keep renting and returning it; checks that
+// no more copies are ever out than the title has and that the counts survive a restart, exits with 1
+// when they do not
+// usage: InventoryStressBenchmark [key=value ...]
+//
+//   threads=2000         students in the burst, one thread each, all released at once
+//   copies=50            copies of the title
+//   churners=16          threads renting and returning in a loop afterwards, each with its own students
+//   seconds=3            length of the churn
+//   durability=NONE
+public class InventoryStressBenchmark {
+
+    private static final int STUDENTS_PER_CHURNER = 8;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> params = LibraryBenchmark.parse(args);
+        int threads = Integer.parseInt(params.getOrDefault("threads", "2000"));
+        int copies = Integer.parseInt(params.getOrDefault("copies", "50"));
+        int churners = Integer.parseInt(params.getOrDefault("churners", "16"));
+        int seconds = Integer.parseInt(params.getOrDefault("seconds", "3"));
+        DurabilityPolicy policy = DurabilityPolicy.valueOf(params.getOrDefault("durability", "NONE"));
+
+        // burst students first, then STUDENTS_PER_CHURNER per churner
+        Path dataDir = BenchFixture.create("stress-bench", 1, threads + churners * STUDENTS_PER_CHURNER, 0);
+        String isbn = BenchFixture.isbn(0);
+        LibraryService service = new LibraryService(dataDir, policy);
+        service.initDemoData();
+        service.getCatalog().add(new Book(isbn, "Title 0", copies));
+        List<String> failures = new ArrayList<>();
+
+        // burst: every thread tries once, exactly min(copies, threads) may succeed
+        LongAdder rented = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> burst = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            String studentId = BenchFixture.studentId(t);
+            Thread renter = new Thread(() -> {
+                try {
+                    start.await();
+                }
+                catch (InterruptedException e) {
+                    return;
+                }
+                if (service.rentBook(studentId, isbn)) {
+                    rented.increment();
+                }
+            });
+            renter.start();
+            burst.add(renter);
+        }
+        long burstStart = System.nanoTime();
+        start.countDown();
+        for (Thread renter : burst) {
+            renter.join();
+        }
+        long burstNanos = System.nanoTime() - burstStart;
+        if (rented.sum() != Math.min(copies, threads)) {
+            failures.add("burst rented " + rented.sum() + " of " + copies + " copies");
+        }
+        consistent(service, isbn, copies, "after the burst", failures);
+
+        // churn: outstanding is raised after a rent went through and lowered before the return is sent,
+        // so it never counts more copies than are really out
+        AtomicInteger outstanding = new AtomicInteger((int) rented.sum());
+        AtomicInteger peak = new AtomicInteger(outstanding.get());
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder ops = new LongAdder();
+        List<Thread> churning = new ArrayList<>();
+        for (int t = 0; t < churners; t++) {
+            int first = threads + t * STUDENTS_PER_CHURNER;
+            Thread churner = new Thread(() -> {
+                int next = 0;
+                while (running.get()) {
+                    String studentId = BenchFixture.studentId(first + next);
+                    next = (next + 1) % STUDENTS_PER_CHURNER;
+                    if (service.rentBook(studentId, isbn)) {
+                        peak.accumulateAndGet(outstanding.incrementAndGet(), Math::max);
+                        outstanding.decrementAndGet();
+                        service.returnBook(studentId, isbn);
+                    }
+                    ops.increment();
+                }
+            });
+            churner.start();
+            churning.add(churner);
+        }
+        // the burst's holders return half of theirs meanwhile, so the churners get copies to fight over
+        for (int t = 0; t < threads; t += 2) {
+            String studentId = BenchFixture.studentId(t);
+            if (service.getActiveRentals().holds(service.getActiveRentals().student(studentId), isbn)) {
+                outstanding.decrementAndGet();
+                service.returnBook(studentId, isbn);
+            }
+        }
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        for (Thread churner : churning) {
+            churner.join();
+        }
+        if (peak.get() > copies) {
+            failures.add("churn had " + peak.get() + " copies out of " + copies);
+        }
+        consistent(service, isbn, copies, "after the churn", failures);
+        int checkedOut = service.getCatalog().get(isbn).orElseThrow().getCheckedOut();
+        service.shutdown();
+
+        // the same counts have to come back from disk
+        LibraryService reopened = new LibraryService(dataDir, policy);
+        reopened.initDemoData();
+        int reloaded = reopened.getCatalog().get(isbn).orElseThrow().getCheckedOut();
+        if (reloaded != checkedOut) {
+            failures.add("restart brought back " + reloaded + " checked out, " + checkedOut + " were");
+        }
+        consistent(reopened, isbn, copies, "after a restart", failures);
+        reopened.shutdown();
+        BenchFixture.delete(dataDir);
+
+        System.out.printf("burst     %d threads, %d copies, %d rented in %.1f ms%n",
+                threads, copies, rented.sum(), burstNanos / 1e6);
+        System.out.printf("churn     %d threads, %.0f calls/s, at most %d copies out%n",
+                churners, ops.sum() / (double) seconds, peak.get());
+        System.out.printf("restart   %d checked out%n", reloaded);
+        if (!failures.isEmpty()) {
+            failures.forEach(f -> System.out.println("OVERSOLD  " + f));
+            System.exit(1);
+        }
+        System.out.println("no oversell");
+    }
+
+    // the catalog's count stays within the copies and matches the students holding the title
+    private static void consistent(LibraryService service, String isbn, int copies, String when, List<String> failures) {
+        Book book = service.getCatalog().get(isbn).orElseThrow();
+        int holders = service.holdersOf(isbn).size();
+        if (book.getCheckedOut() > copies || book.getCheckedOut() != holders) {
+            failures.add(when + ": " + book.getCheckedOut() + " checked out, " + holders + " holders, "
+                    + copies + " copies");
+        }
+    }
+}
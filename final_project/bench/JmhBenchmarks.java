@@ -0,0 +1,367 @@
+package final_project.bench;
+
+import final_project.*;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// the LibraryBenchmark measurements under JMH, for numbers that hold up against a baseline run
+// build with mvn -Pbench package, then: java -jar target/benchmarks.jar [jmh options]
+//
+//   -p books=1000,100000,1000000   catalog sizes, every size gets its own fixture
+//   -p students=10000              registry sizes
+//   -p durability=NONE,BATCH
+//   -t 4                           threads, one count per run (run once with -t 1 and once with -t 4 to
+//                                  compare); rentReturn shares one service between all of them
+//   -bm thrpt,sample               throughput or single-op latency, both are on by default for rentReturn
+//
+// catalogContended and registryContended are meant to be swept over thread counts, one run each:
+//   for t in 1 2 4 8 16 32 64; do java -jar target/benchmarks.jar 'Contended' -t $t; done
+//   -p writes=10                   percent of operations that mutate
+//   -p saving=false,true           a snapshot of the same store written back to back on one more thread
+//
+// LibraryBenchmark stays for quick runs without the jar
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class JmhBenchmarks {
+
+    // one service over a fresh fixture per trial
+    @State(Scope.Benchmark)
+    public static class Service {
+
+        @Param({"1000", "100000", "1000000"})
+        public int books;
+
+        @Param({"10000"})
+        public int students;
+
+        @Param({"NONE", "BATCH"})
+        public DurabilityPolicy durability;
+
+        LibraryService service;
+        Path dataDir;
+
+        @Setup(Level.Trial)
+        public void open() throws IOException {
+            dataDir = BenchFixture.create("jmh-service", books, students, 0);
+            service = new LibraryService(dataDir, durability);
+            service.initDemoData();
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            service.shutdown();
+            BenchFixture.delete(dataDir);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Catalog {
+
+        @Param({"1000", "100000", "1000000"})
+        public int books;
+
+        LibraryCatalog catalog;
+        Path dataDir;
+
+        @Setup(Level.Trial)
+        public void open() throws Exception {
+            dataDir = Files.createTempDirectory("jmh-catalog");
+            BenchFixture.writeCatalog(dataDir, books);
+            catalog = new LibraryCatalog(dataDir);
+            catalog.load();
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            catalog.close();
+            BenchFixture.delete(dataDir);
+        }
+    }
+
+    // a loaded catalog with every tenth title rented out completely, for the aggregate queries
+    @State(Scope.Benchmark)
+    public static class Reports {
+
+        @Param({"100000", "1000000"})
+        public int books;
+
+        @Param({"HEAP", "COLUMNAR"})
+        public CatalogBackend backend;
+
+        LibraryCatalog catalog;
+        Path dataDir;
+
+        @Setup(Level.Trial)
+        public void open() throws Exception {
+            dataDir = Files.createTempDirectory("jmh-reports");
+            BenchFixture.writeCatalog(dataDir, books);
+            catalog = new LibraryCatalog(dataDir, new LatencyHistogram(), backend);
+            catalog.load();
+            for (int i = 0; i < books; i += 10) {
+                catalog.checkout(catalog.get(BenchFixture.isbn(i)).orElseThrow(), BenchFixture.COPIES);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            catalog.close();
+            BenchFixture.delete(dataDir);
+        }
+    }
+
+    // the saver, when on, runs for the whole trial on its own thread and is not counted
+    @State(Scope.Benchmark)
+    public static class ContendedCatalog {
+
+        @Param({"100000"})
+        public int books;
+
+        @Param({"10"})
+        public int writes;
+
+        @Param({"false", "true"})
+        public boolean saving;
+
+        LibraryCatalog catalog;
+        Path dataDir;
+        Saver saver;
+
+        @Setup(Level.Trial)
+        public void open() throws Exception {
+            dataDir = Files.createTempDirectory("jmh-contended-catalog");
+            BenchFixture.writeCatalog(dataDir, books);
+            catalog = new LibraryCatalog(dataDir);
+            catalog.load();
+            saver = saving ? new Saver(catalog::save) : null;
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws Exception {
+            if (saver != null) {
+                saver.stop();
+            }
+            catalog.close();
+            BenchFixture.delete(dataDir);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class ContendedRegistry {
+
+        @Param({"100000"})
+        public int students;
+
+        @Param({"10"})
+        public int writes;
+
+        @Param({"false", "true"})
+        public boolean saving;
+
+        BinaryStudentRegistry registry;
+        List<Student> all;
+        Path dataDir;
+        Saver saver;
+
+        @Setup(Level.Trial)
+        public void open() throws Exception {
+            dataDir = Files.createTempDirectory("jmh-contended-registry");
+            BenchFixture.writeStudents(dataDir, students, 0);
+            registry = new BinaryStudentRegistry(dataDir);
+            registry.load();
+            all = registry.listAll();
+            saver = saving ? new Saver(registry::save) : null;
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws Exception {
+            if (saver != null) {
+                saver.stop();
+            }
+            registry.close();
+            BenchFixture.delete(dataDir);
+        }
+    }
+
+    // writes a snapshot in a loop until stopped
+    static class Saver {
+
+        private final AtomicBoolean running = new AtomicBoolean(true);
+        private final Thread thread;
+
+        Saver(IoTask save) {
+            thread = new Thread(() -> {
+                try {
+                    while (running.get()) {
+                        save.run();
+                    }
+                }
+                catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }, "jmh-saver");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void stop() throws InterruptedException {
+            running.set(false);
+            thread.join();
+        }
+    }
+
+    interface IoTask {
+        void run() throws Exception;
+    }
+
+    @State(Scope.Benchmark)
+    public static class Registry {
+
+        @Param({"10000"})
+        public int students;
+
+        @Param({"HEAP", "MAPPED"})
+        public RegistryBackend backend;
+
+        StudentRegistry registry;
+        Path dataDir;
+
+        @Setup(Level.Trial)
+        public void open() throws Exception {
+            dataDir = Files.createTempDirectory("jmh-registry");
+            BenchFixture.writeStudents(dataDir, students, 0);
+            registry = backend == RegistryBackend.MAPPED
+                    ? new MappedStudentRegistry(dataDir)
+                    : new BinaryStudentRegistry(dataDir);
+            registry.load();
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            registry.close();
+            BenchFixture.delete(dataDir);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Log {
+
+        @Param({"200"})
+        public int events;
+
+        Path dataDir;
+        StudentFileLog appender;
+        StudentFileLog history;
+
+        @Setup(Level.Trial)
+        public void open() throws IOException {
+            dataDir = BenchFixture.create("jmh-log", 0, 1, events);
+            appender = new StudentFileLog(dataDir.resolve("logs"), "append");
+            history = new StudentFileLog(dataDir.resolve("logs"), BenchFixture.studentId(0));
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            BenchFixture.delete(dataDir);
+        }
+    }
+
+    // a rent and, when it went through, the matching return
+    @Benchmark
+    @BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public boolean rentReturn(Service s) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String studentId = BenchFixture.studentId(random.nextInt(s.students));
+        String isbn = BenchFixture.isbn(random.nextInt(s.books));
+        return s.service.rentBook(studentId, isbn) && s.service.returnBook(studentId, isbn);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void catalogSave(Catalog c) throws IOException {
+        c.catalog.save();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public LibraryCatalog catalogLoad(Catalog c) throws Exception {
+        LibraryCatalog loaded = new LibraryCatalog(c.dataDir);
+        loaded.load();
+        loaded.close();
+        return loaded;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public long totalCheckedOut(Reports r) {
+        return r.catalog.totalCheckedOut();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int lowAvailability(Reports r) {
+        return r.catalog.lowAvailability(0).size();
+    }
+
+    // a lookup, and for writes percent of the calls a checkout and checkin of the book
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Book catalogContended(ContendedCatalog c) throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Book book = c.catalog.get(BenchFixture.isbn(random.nextInt(c.books))).orElseThrow();
+        if (random.nextInt(100) < c.writes && c.catalog.checkout(book)) {
+            c.catalog.checkin(book);
+        }
+        return book;
+    }
+
+    // a lookup, or for writes percent of the calls an update of the student
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Object registryContended(ContendedRegistry r) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Student s = r.all.get(random.nextInt(r.all.size()));
+        if (random.nextInt(100) < r.writes) {
+            r.registry.addOrUpdateStudent(new Student(s.getId(), s.getName(), s.getProgram(), s.getYear()));
+            return s;
+        }
+        return r.registry.findById(s.getId());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Object registryFindById(Registry r) {
+        return r.registry.findById(BenchFixture.studentId(ThreadLocalRandom.current().nextInt(r.students)));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void logAppend(Log l) throws IOException {
+        l.appender.append(EventType.RENT, "9780", "Title 0");
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void readAllPretty(Log l, Blackhole hole) throws IOException {
+        hole.consume(l.history.readAllPretty());
+    }
+}
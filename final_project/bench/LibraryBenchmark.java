@@ -0,0 +1,238 @@
+package final_project.bench;
+
+import final_project.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+// baseline numbers for the rental hot path and the persistence layer, run it before and after a change;
+// quick to run off target/classes, JmhBenchmarks measures the same operations under JMH
+// usage: LibraryBenchmark [key=value ...]
+//
+//   books=1000,100000    catalog sizes, every size gets its own fixture
+//   students=10000       registry sizes
+//   threads=1,4          thread counts for the throughput runs
+//   durability=NONE,BATCH
+//   seconds=3            length of each throughput run
+//   ops=20000            operations per latency run, the same number again is spent warming up
+//   events=200           log length for the read benchmark
+public class LibraryBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> params = parse(args);
+        int[] books = ints(params.getOrDefault("books", "1000,100000"));
+        int[] students = ints(params.getOrDefault("students", "10000"));
+        int[] threads = ints(params.getOrDefault("threads", "1,4"));
+        String[] durability = params.getOrDefault("durability", "NONE,BATCH").split(",");
+        int seconds = Integer.parseInt(params.getOrDefault("seconds", "3"));
+        int ops = Integer.parseInt(params.getOrDefault("ops", "20000"));
+        int events = Integer.parseInt(params.getOrDefault("events", "200"));
+
+        System.out.println("== rental path");
+        System.out.printf("%-34s %10s %10s %10s %12s%n", "", "mean us", "p50 us", "p99 us", "ops/s");
+        for (int bookCount : books) {
+            for (int studentCount : students) {
+                Path dataDir = BenchFixture.create("library-bench", bookCount, studentCount, 0);
+                for (String policy : durability) {
+                    rentalPath(dataDir, bookCount, studentCount, DurabilityPolicy.valueOf(policy.trim()), threads, seconds, ops);
+                }
+                BenchFixture.delete(dataDir);
+            }
+        }
+
+        System.out.println("== catalog snapshot");
+        System.out.printf("%-34s %10s %10s%n", "", "save ms", "load ms");
+        for (int bookCount : books) {
+            catalogSnapshot(bookCount);
+        }
+
+        System.out.println("== registry lookup");
+        System.out.printf("%-34s %10s%n", "", "ns/op");
+        for (int studentCount : students) {
+            registryLookup(studentCount, ops);
+        }
+
+        System.out.println("== student log");
+        System.out.printf("%-34s %10s%n", "", "us/op");
+        studentLog(ops, events);
+    }
+
+    // rent + return pairs on a fresh service: latency on one thread, then throughput per thread count
+    static void rentalPath(Path dataDir, int bookCount, int studentCount, DurabilityPolicy policy,
+                           int[] threads, int seconds, int ops) throws Exception {
+        LibraryService service = new LibraryService(dataDir, policy);
+        service.initDemoData();
+        String label = String.format("%s %dk books %dk students", policy, bookCount / 1000, studentCount / 1000);
+
+        long[] rent = new long[ops];
+        long[] ret = new long[ops];
+        for (int round = 0; round < 2; round++) { // first round is warm-up
+            for (int i = 0; i < ops; i++) {
+                String studentId = BenchFixture.studentId(ThreadLocalRandom.current().nextInt(studentCount));
+                String isbn = BenchFixture.isbn(ThreadLocalRandom.current().nextInt(bookCount));
+
+                long start = System.nanoTime();
+                service.rentBook(studentId, isbn);
+                long middle = System.nanoTime();
+                service.returnBook(studentId, isbn);
+                rent[i] = middle - start;
+                ret[i] = System.nanoTime() - middle;
+            }
+        }
+        latency(label + " rent", rent);
+        latency(label + " return", ret);
+
+        for (int threadCount : threads) {
+            long done = throughput(service, bookCount, studentCount, threadCount, seconds);
+            System.out.printf("%-34s %10s %10s %10s %12.0f%n",
+                    label + " x" + threadCount, "", "", "", done / (double) seconds);
+        }
+
+        service.shutdown();
+        Files.deleteIfExists(dataDir.resolve("rentals.ckpt")); // the next policy starts from the logs again
+    }
+
+    // rent + return calls completed by all threads within the time limit
+    static long throughput(LibraryService service, int bookCount, int studentCount, int threadCount, int seconds)
+            throws InterruptedException {
+        LongAdder done = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            Thread worker = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    start.await();
+                }
+                catch (InterruptedException e) {
+                    return;
+                }
+                while (System.nanoTime() < deadline) {
+                    String studentId = BenchFixture.studentId(random.nextInt(studentCount));
+                    String isbn = BenchFixture.isbn(random.nextInt(bookCount));
+                    if (service.rentBook(studentId, isbn)) {
+                        service.returnBook(studentId, isbn);
+                    }
+                    done.add(2);
+                }
+            }, "bench-" + t);
+            workers.add(worker);
+            worker.start();
+        }
+
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return done.sum();
+    }
+
+    static void catalogSnapshot(int bookCount) throws Exception {
+        Path dataDir = Files.createTempDirectory("catalog-bench");
+        BenchFixture.writeCatalog(dataDir, bookCount);
+
+        LibraryCatalog catalog = new LibraryCatalog(dataDir);
+        catalog.load();
+        long save = StorageFormatBenchmark.best(5, catalog::save);
+        long load = StorageFormatBenchmark.best(5, () -> new LibraryCatalog(dataDir).load());
+        catalog.close();
+
+        System.out.printf("%-34s %10.1f %10.1f%n", bookCount / 1000 + "k books", save / 1e6, load / 1e6);
+        BenchFixture.delete(dataDir);
+    }
+
+    static void registryLookup(int studentCount, int ops) throws Exception {
+        Path dataDir = Files.createTempDirectory("registry-bench");
+        BenchFixture.writeStudents(dataDir, studentCount, 0);
+
+        for (RegistryBackend backend : RegistryBackend.values()) {
+            StudentRegistry registry = backend == RegistryBackend.MAPPED
+                    ? new MappedStudentRegistry(dataDir)
+                    : new BinaryStudentRegistry(dataDir);
+            registry.load();
+
+            String[] ids = new String[ops];
+            for (int i = 0; i < ops; i++) {
+                ids[i] = BenchFixture.studentId(ThreadLocalRandom.current().nextInt(studentCount));
+            }
+            long best = Long.MAX_VALUE;
+            int found = 0;
+            for (int round = 0; round < 5; round++) {
+                long start = System.nanoTime();
+                for (String id : ids) {
+                    found += registry.findById(id).isPresent() ? 1 : 0;
+                }
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            registry.close();
+
+            if (found != ids.length * 5) {
+                throw new IllegalStateException("lookups missed");
+            }
+            System.out.printf("%-34s %10.0f%n", backend + " " + studentCount / 1000 + "k students", best / (double) ops);
+        }
+        BenchFixture.delete(dataDir);
+    }
+
+    static void studentLog(int ops, int events) throws Exception {
+        Path dataDir = BenchFixture.create("log-bench", 0, 1, events);
+        Path logsDir = dataDir.resolve("logs");
+
+        StudentFileLog log = new StudentFileLog(logsDir, "append");
+        long append = StorageFormatBenchmark.best(3, () -> {
+            for (int i = 0; i < ops; i++) {
+                log.append(EventType.RENT, "9780", "Title 0");
+            }
+        });
+        System.out.printf("%-34s %10.2f%n", "StudentFileLog.append", append / 1e3 / ops);
+
+        StudentLogWriters writers = new StudentLogWriters(logsDir);
+        long pooled = StorageFormatBenchmark.best(3, () -> {
+            for (int i = 0; i < ops; i++) {
+                writers.append("pooled", EventType.RENT, "9780", "Title 0");
+            }
+        });
+        writers.close();
+        System.out.printf("%-34s %10.2f%n", "StudentLogWriters.append", pooled / 1e3 / ops);
+
+        StudentFileLog history = new StudentFileLog(logsDir, BenchFixture.studentId(0));
+        long read = StorageFormatBenchmark.best(20, history::readAllPretty);
+        System.out.printf("%-34s %10.2f%n", "readAllPretty " + events + " events", read / 1e3);
+
+        BenchFixture.delete(dataDir);
+    }
+
+    static void latency(String label, long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        double mean = Arrays.stream(sorted).average().orElse(0);
+        System.out.printf("%-34s %10.1f %10.1f %10.1f%n", label,
+                mean / 1e3, sorted[sorted.length / 2] / 1e3, sorted[(int) (sorted.length * 0.99)] / 1e3);
+    }
+
+    static Map<String, String> parse(String[] args) {
+        Map<String, String> params = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Expected key=value: " + arg);
+            }
+            params.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        return params;
+    }
+
+    static int[] ints(String list) {
+        return Arrays.stream(list.split(",")).map(String::trim).mapToInt(Integer::parseInt).toArray();
+    }
+}
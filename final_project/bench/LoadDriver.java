@@ -0,0 +1,323 @@
+package final_project.bench;
+
+import final_project.*;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+// headless load against LibraryService, either a synthetic rent/return mix or recorded student logs
+// usage: LoadDriver [key=value ...]
+//
+//   books=10000 students=5000   synthetic fixture size
+//   zipf=1.0                    popularity skew of the titles, 0 = uniform
+//   rentRatio=0.6               share of rents in the mix, returns pick something the student holds
+//   seconds=10                  length of a synthetic run
+//   replay=<logs dir>           replay every .bin log in the directory instead, in timestamp order
+//   threads=4 rate=0            worker threads and target ops/s over all of them, 0 = as fast as possible
+//   durability=BATCH
+//   catalog=HEAP                CatalogBackend, the catalog report at the end is timed against it
+//
+// with a target rate, latency is measured from when an operation was due, not when it started,
+// so a stalled service shows up in the percentiles instead of just slowing the driver down
+public class LoadDriver {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> params = LibraryBenchmark.parse(args);
+        int threads = Integer.parseInt(params.getOrDefault("threads", "4"));
+        double rate = Double.parseDouble(params.getOrDefault("rate", "0"));
+        LibraryOptions options = new LibraryOptions();
+        options.setDurability(DurabilityPolicy.valueOf(params.getOrDefault("durability", "BATCH")));
+        options.setCatalogBackend(CatalogBackend.valueOf(params.getOrDefault("catalog", "HEAP")));
+
+        Path dataDir;
+        List<Source> sources = new ArrayList<>();
+        long deadline = Long.MAX_VALUE;
+
+        if (params.containsKey("replay")) {
+            Map<String, List<Op>> recorded = readLogs(Path.of(params.get("replay")));
+            dataDir = Files.createTempDirectory("load-replay");
+            writeReplayFixture(dataDir, recorded);
+
+            // a student's events stay on one thread, so they are replayed in their original order
+            List<List<Op>> perThread = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                perThread.add(new ArrayList<>());
+            }
+            for (Map.Entry<String, List<Op>> e : recorded.entrySet()) {
+                perThread.get(Math.floorMod(e.getKey().hashCode(), threads)).addAll(e.getValue());
+            }
+            for (List<Op> ops : perThread) {
+                ops.sort(Comparator.comparingLong(op -> op.ts));
+                Iterator<Op> it = ops.iterator();
+                sources.add(held -> it.hasNext() ? it.next() : null);
+            }
+            System.out.printf("replaying %d students, %d events%n", recorded.size(),
+                    perThread.stream().mapToInt(List::size).sum());
+        }
+        else {
+            int books = Integer.parseInt(params.getOrDefault("books", "10000"));
+            int students = Integer.parseInt(params.getOrDefault("students", "5000"));
+            double skew = Double.parseDouble(params.getOrDefault("zipf", "1.0"));
+            double rentRatio = Double.parseDouble(params.getOrDefault("rentRatio", "0.6"));
+            int seconds = Integer.parseInt(params.getOrDefault("seconds", "10"));
+
+            System.out.printf("generating %d books, %d students%n", books, students);
+            dataDir = BenchFixture.create("load-synthetic", books, students, 0);
+            Zipf zipf = new Zipf(books, skew);
+
+            // thread t drives students t, t + threads, ... so it knows everything they hold
+            for (int t = 0; t < threads; t++) {
+                int first = t;
+                int owned = (students - first + threads - 1) / threads;
+                sources.add(held -> synthetic(held, first, owned, threads, zipf, rentRatio));
+            }
+            deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        }
+
+        LibraryService service = new LibraryService(dataDir, options);
+        service.initDemoData();
+
+        Result result = run(service, sources, rate, deadline);
+        result.print();
+
+        // what a circulation report asks once the load is over
+        long start = System.nanoTime();
+        long checkedOut = service.getCatalog().totalCheckedOut();
+        int exhausted = service.getCatalog().lowAvailability(0).size();
+        System.out.printf("catalog  %s, %d checked out, %d titles with no copy left, report in %.1f us%n",
+                options.getCatalogBackend(), checkedOut, exhausted, (System.nanoTime() - start) / 1e3);
+
+        service.shutdown();
+        BenchFixture.delete(dataDir);
+    }
+
+    // one rent or return, ts is only used to order replayed events
+    static class Op {
+
+        final long ts;
+        final String studentId;
+        final EventType type;
+        final String isbn;
+
+        Op(long ts, String studentId, EventType type, String isbn) {
+            this.ts = ts;
+            this.studentId = studentId;
+            this.type = type;
+            this.isbn = isbn;
+        }
+    }
+
+    // operations for one worker, null when it has no more, held is what that worker's students hold
+    interface Source {
+        Op next(Map<String, Set<String>> held);
+    }
+
+    enum Rejection {
+        DUPLICATE_RENT, // student already holds the isbn
+        NO_COPY,        // every copy is out, the oversell the service has to refuse
+        NOT_HELD,       // return of something the student does not hold
+        OTHER
+    }
+
+    static class Result {
+
+        final LatencyHistogram rent = new LatencyHistogram();
+        final LatencyHistogram ret = new LatencyHistogram();
+        final LongAdder rentOk = new LongAdder();
+        final LongAdder returnOk = new LongAdder();
+        final EnumMap<Rejection, LongAdder> rejected = new EnumMap<>(Rejection.class);
+        long elapsedNanos;
+
+        Result() {
+            for (Rejection r : Rejection.values()) {
+                rejected.put(r, new LongAdder());
+            }
+        }
+
+        void print() {
+            long ops = rent.count() + ret.count();
+            double seconds = elapsedNanos / 1e9;
+            System.out.printf("%d ops in %.1f s, %.0f ops/s%n", ops, seconds, ops / seconds);
+            System.out.printf("%-8s %10s %10s %10s %10s %10s%n", "", "count", "p50 us", "p99 us", "p999 us", "max us");
+            print("rent", rent);
+            print("return", ret);
+
+            System.out.printf("rent ok %d, return ok %d%n", rentOk.sum(), returnOk.sum());
+            for (Map.Entry<Rejection, LongAdder> e : rejected.entrySet()) {
+                long n = e.getValue().sum();
+                System.out.printf("%-16s %10d %8.2f%%%n", e.getKey(), n, ops == 0 ? 0 : 100.0 * n / ops);
+            }
+        }
+
+        private static void print(String label, LatencyHistogram h) {
+            System.out.printf("%-8s %10d %10.1f %10.1f %10.1f %10.1f%n", label, h.count(),
+                    h.percentile(50) / 1e3, h.percentile(99) / 1e3, h.percentile(99.9) / 1e3, h.max() / 1e3);
+        }
+    }
+
+    static Result run(LibraryService service, List<Source> sources, double rate, long deadline) throws InterruptedException {
+        Result result = new Result();
+        // every worker gets an equal share of the target rate
+        long intervalNanos = rate > 0 ? (long) (1e9 * sources.size() / rate) : 0;
+        long start = System.nanoTime();
+
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < sources.size(); t++) {
+            Source source = sources.get(t);
+            Thread worker = new Thread(() -> {
+                Map<String, Set<String>> held = new HashMap<>();
+                long due = start;
+                Op op;
+                while (System.nanoTime() < deadline && (op = source.next(held)) != null) {
+                    if (intervalNanos > 0) {
+                        due += intervalNanos;
+                        long wait = due - System.nanoTime();
+                        if (wait > 0) {
+                            LockSupport.parkNanos(wait);
+                        }
+                    }
+                    long begin = intervalNanos > 0 ? due : System.nanoTime();
+                    execute(service, op, held, begin, result);
+                }
+            }, "load-" + t);
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        result.elapsedNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    static void execute(LibraryService service, Op op, Map<String, Set<String>> held, long begin, Result result) {
+        Set<String> holdings = held.computeIfAbsent(op.studentId, id -> new HashSet<>());
+
+        if (op.type == EventType.RENT) {
+            boolean ok = service.rentBook(op.studentId, op.isbn);
+            result.rent.record(System.nanoTime() - begin);
+            if (ok) {
+                holdings.add(op.isbn);
+                result.rentOk.increment();
+            }
+            else if (holdings.contains(op.isbn)) {
+                result.rejected.get(Rejection.DUPLICATE_RENT).increment();
+            }
+            else if (service.getCatalog().get(op.isbn).map(Book::getAvailable).orElse(0) == 0) {
+                result.rejected.get(Rejection.NO_COPY).increment();
+            }
+            else {
+                result.rejected.get(Rejection.OTHER).increment();
+            }
+        }
+        else {
+            boolean ok = service.returnBook(op.studentId, op.isbn);
+            result.ret.record(System.nanoTime() - begin);
+            if (ok) {
+                holdings.remove(op.isbn);
+                result.returnOk.increment();
+            }
+            else {
+                result.rejected.get(holdings.contains(op.isbn) ? Rejection.OTHER : Rejection.NOT_HELD).increment();
+            }
+        }
+    }
+
+    // a random student of the worker, who rents a title by popularity or returns one they hold
+    static Op synthetic(Map<String, Set<String>> held, int first, int owned, int stride, Zipf zipf, double rentRatio) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String studentId = BenchFixture.studentId(first + random.nextInt(owned) * stride);
+        Set<String> holdings = held.get(studentId);
+
+        if (holdings == null || holdings.isEmpty() || random.nextDouble() < rentRatio) {
+            return new Op(0, studentId, EventType.RENT, BenchFixture.isbn(zipf.next(random)));
+        }
+        // returns come from what the student holds, picked without copying the set
+        int skip = random.nextInt(holdings.size());
+        Iterator<String> it = holdings.iterator();
+        for (int i = 0; i < skip; i++) {
+            it.next();
+        }
+        return new Op(0, studentId, EventType.RETURN, it.next());
+    }
+
+    // every event of every .bin log in the directory, keyed by student id
+    static Map<String, List<Op>> readLogs(Path logsDir) throws IOException {
+        Map<String, List<Op>> recorded = new HashMap<>();
+        List<Path> logs;
+        try (Stream<Path> files = Files.list(logsDir)) {
+            logs = files.filter(p -> p.getFileName().toString().endsWith(".bin")).toList();
+        }
+
+        for (Path log : logs) {
+            String name = log.getFileName().toString();
+            String studentId = name.substring(0, name.length() - ".bin".length());
+            List<Op> ops = new ArrayList<>();
+
+            // archived history included, the title is dropped since the fixture gives every isbn its own
+            for (LogEntry entry : new StudentFileLog(logsDir, studentId).read(0, Integer.MAX_VALUE)) {
+                if (entry.getType() != EventType.RENT && entry.getType() != EventType.RETURN) {
+                    continue; // holds are not replayed
+                }
+                ops.add(new Op(entry.getTimestamp(), studentId, entry.getType(), entry.getIsbn()));
+            }
+            recorded.put(studentId, ops);
+        }
+        return recorded;
+    }
+
+    // registry with the logged students and a catalog with every logged isbn, each with one copy per
+    // student who ever rented it, so only the replayed order decides what gets rejected
+    static void writeReplayFixture(Path dataDir, Map<String, List<Op>> recorded) throws IOException {
+        BinaryStudentRegistry registry = new BinaryStudentRegistry(dataDir);
+        Map<String, Set<String>> renters = new HashMap<>();
+        for (Map.Entry<String, List<Op>> e : recorded.entrySet()) {
+            registry.addOrUpdateStudent(new Student(e.getKey(), "Student " + e.getKey(), "Replay", 1));
+            for (Op op : e.getValue()) {
+                renters.computeIfAbsent(op.isbn, isbn -> new HashSet<>()).add(e.getKey());
+            }
+        }
+        registry.save();
+
+        LibraryCatalog catalog = new LibraryCatalog(dataDir);
+        try {
+            for (Map.Entry<String, Set<String>> e : renters.entrySet()) {
+                catalog.add(new Book(e.getKey(), "Title of " + e.getKey(), e.getValue().size()));
+            }
+            catalog.save();
+        }
+        finally {
+            catalog.close();
+        }
+    }
+
+    // zipf distributed ranks 0..n-1 by binary search over the cumulative weights
+    static class Zipf {
+
+        private final double[] cumulative;
+
+        Zipf(int n, double skew) {
+            cumulative = new double[n];
+            double sum = 0;
+            for (int i = 0; i < n; i++) {
+                sum += 1.0 / Math.pow(i + 1, skew);
+                cumulative[i] = sum;
+            }
+            for (int i = 0; i < n; i++) {
+                cumulative[i] /= sum;
+            }
+        }
+
+        int next(Random random) {
+            int index = Arrays.binarySearch(cumulative, random.nextDouble());
+            return Math.min(cumulative.length - 1, index >= 0 ? index : -index - 1);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package final_project.bench;
+
+import final_project.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// startup recovery timing: sequential vs parallel full replay, and checkpoint plus log tails
+// usage: RecoveryBenchmark [students] [eventsPerStudent] [runs]
+public class RecoveryBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int students = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int events = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        System.out.printf("generating %d students x %d events%n", students, events);
+        Path dataDir = BenchFixture.create("recovery-bench", 0, students, events);
+
+        // full replays, the checkpoint written by shutdown() is removed before every run
+        report("sequential", runs, time(dataDir, runs, false, false));
+        report("parallel", runs, time(dataDir, runs, true, false));
+
+        // checkpoint plus log tails, shutdown() leaves an up to date checkpoint behind
+        report("checkpoint", runs, time(dataDir, runs, true, true));
+
+        BenchFixture.delete(dataDir);
+    }
+
+    static long time(Path dataDir, int runs, boolean parallel, boolean keepCheckpoint) throws Exception {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < runs; run++) {
+            if (!keepCheckpoint) {
+                Files.deleteIfExists(dataDir.resolve("rentals.ckpt"));
+            }
+            LibraryService service = new LibraryService(dataDir, DurabilityPolicy.NONE);
+            try {
+                service.getRegistry().load();
+                long start = System.nanoTime();
+                service.recoverActiveRentals(parallel, null);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            finally {
+                service.shutdown();
+            }
+        }
+        return best;
+    }
+
+    static void report(String mode, int runs, long bestNanos) {
+        System.out.printf("%-10s best of %d: %8.1f ms%n", mode, runs, bestNanos / 1e6);
+    }
+}
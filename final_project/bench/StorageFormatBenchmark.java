@@ -0,0 +1,94 @@
+package final_project.bench;
+
+import final_project.*;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+// ObjectOutputStream snapshots vs the RecordFile format: save time, load time and file size
+// usage: StorageFormatBenchmark [records] [runs]
+public class StorageFormatBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        Path dir = Files.createTempDirectory("format-bench");
+        List<Student> students = new ArrayList<>(records);
+        List<Book> books = new ArrayList<>(records);
+        for (int i = 0; i < records; i++) {
+            // separate string instances, like records typed in at the desk
+            students.add(new Student("S" + i, "Student " + i, "Program " + (i % 12), 1 + i % 4));
+            books.add(new Book("978" + i, "Title number " + i, 1 + i % 5));
+        }
+
+        System.out.printf("%d records per file in %s%n", records, dir);
+        System.out.printf("%-22s %10s %10s %12s%n", "", "save ms", "load ms", "bytes");
+
+        // legacy format, the way save() used to write it
+        Path legacyStudents = dir.resolve("legacy-students.dat");
+        Path legacyBooks = dir.resolve("legacy-catalog.dat");
+        report("students (legacy)",
+                best(runs, () -> writeLegacy(legacyStudents, students)),
+                best(runs, () -> readLegacy(legacyStudents)),
+                Files.size(legacyStudents));
+        report("catalog (legacy)",
+                best(runs, () -> writeLegacy(legacyBooks, books)),
+                best(runs, () -> readLegacy(legacyBooks)),
+                Files.size(legacyBooks));
+
+        // record format through the real stores
+        Path recordDir = dir.resolve("records");
+        BinaryStudentRegistry registry = new BinaryStudentRegistry(recordDir);
+        students.forEach(registry::addOrUpdateStudent);
+        report("students (record)",
+                best(runs, registry::save),
+                best(runs, () -> new BinaryStudentRegistry(recordDir).load()),
+                Files.size(recordDir.resolve("students.dat")));
+
+        LibraryCatalog catalog = new LibraryCatalog(recordDir);
+        books.forEach(catalog::add);
+        catalog.save(); // empties the journal so the load below reads only the snapshot
+        report("catalog (record)",
+                best(runs, catalog::save),
+                best(runs, () -> {
+                    LibraryCatalog fresh = new LibraryCatalog(recordDir);
+                    fresh.load();
+                }),
+                Files.size(recordDir.resolve("catalog.dat")));
+        catalog.close();
+    }
+
+    interface Task {
+        void run() throws Exception;
+    }
+
+    static long best(int runs, Task task) throws Exception {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            task.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    static void report(String label, long saveNanos, long loadNanos, long bytes) {
+        System.out.printf("%-22s %10.1f %10.1f %12d%n", label, saveNanos / 1e6, loadNanos / 1e6, bytes);
+    }
+
+    static void writeLegacy(Path file, List<?> records) throws IOException {
+        try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeObject(new ArrayList<>(records));
+        }
+    }
+
+    static void readLegacy(Path file) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            in.readObject();
+        }
+    }
+}
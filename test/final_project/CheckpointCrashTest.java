@@ -0,0 +1,94 @@
+package final_project;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// CheckpointCrashBenchmark cut down to run on every build: a child JVM rents and returns while
+// checkpointing in a loop and is killed mid-run, then a restart through the checkpoint has to find
+// exactly the holdings a replay of the logs alone finds
+class CheckpointCrashTest {
+
+    private static final int ROUNDS = 2;
+    private static final int THREADS = 4;
+    private static final int BOOKS = 50;
+    private static final int STUDENTS = 300;
+
+    @TempDir
+    Path dataDir;
+
+    @Test
+    void checkpointMatchesTheLogsAfterAKill() throws Exception {
+        TestLibrary.write(dataDir, BOOKS, 5, STUDENTS);
+        for (int round = 0; round < ROUNDS; round++) {
+            Process child = new ProcessBuilder(
+                    Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                    "-cp", System.getProperty("java.class.path"),
+                    CheckpointCrashTest.class.getName(), dataDir.toString())
+                    .inheritIO().start();
+            Thread.sleep(1500 + ThreadLocalRandom.current().nextInt(300));
+            assertTrue(child.isAlive(), "child exited early with " + (child.isAlive() ? 0 : child.exitValue()));
+            child.destroyForcibly().waitFor(); // SIGKILL, whatever the committer still had queued is gone
+
+            Map<String, TreeSet<String>> viaCheckpoint = holdings(dataDir);
+            Files.deleteIfExists(dataDir.resolve("rentals.ckpt"));
+            Map<String, TreeSet<String>> viaLogs = holdings(dataDir);
+            assertFalse(viaLogs.values().stream().allMatch(TreeSet::isEmpty), "the child rented nothing");
+            assertEquals(viaLogs, viaCheckpoint, "round " + (round + 1));
+        }
+    }
+
+    // what a restart recovers; the shutdown writes a fresh checkpoint for the next round
+    private static Map<String, TreeSet<String>> holdings(Path dataDir) {
+        LibraryService service = TestLibrary.open(dataDir);
+        try {
+            HoldingsTable table = service.getActiveRentals();
+            Map<String, TreeSet<String>> result = new HashMap<>();
+            for (int i = 0; i < STUDENTS; i++) {
+                String studentId = TestLibrary.studentId(i);
+                result.put(studentId, new TreeSet<>(table.holdings(table.student(studentId))));
+            }
+            return result;
+        }
+        finally {
+            service.shutdown();
+        }
+    }
+
+    // the child, runs until killed: renters keep the committer's queue busy, the main thread checkpoints
+    // back to back
+    public static void main(String[] args) throws Exception {
+        LibraryService service = TestLibrary.open(Path.of(args[0]));
+        HoldingsTable table = service.getActiveRentals();
+        for (int t = 0; t < THREADS; t++) {
+            Thread renter = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (true) {
+                    String studentId = TestLibrary.studentId(random.nextInt(STUDENTS));
+                    List<String> held = table.holdings(table.student(studentId));
+                    // submit without waiting, so plenty of events sit in the queue at any moment
+                    if (held.isEmpty() || random.nextBoolean()) {
+                        service.submitRent(studentId, TestLibrary.isbn(random.nextInt(BOOKS)));
+                    }
+                    else {
+                        service.submitReturn(studentId, held.get(random.nextInt(held.size())));
+                    }
+                }
+            });
+            renter.setDaemon(true);
+            renter.start();
+        }
+        while (true) {
+            service.checkpoint();
+        }
+    }
+}
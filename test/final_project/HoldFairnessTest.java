@@ -0,0 +1,129 @@
+package final_project;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// HoldFairnessBenchmark cut down to run on every build: students queue for a title that is out while
+// renters keep trying to take it, then returns have to hand the copies over in hold order
+class HoldFairnessTest {
+
+    private static final int COPIES = 5;
+    private static final int WAITERS = 200;
+    private static final int RENTERS = 4;
+
+    @TempDir
+    Path dataDir;
+
+    @Test
+    void copiesGoOutInHoldOrder() throws Exception {
+        // students 0 .. COPIES-1 hold the copies, then the waiters, then the renters
+        TestLibrary.write(dataDir, 1, COPIES, COPIES + WAITERS + RENTERS);
+        String isbn = TestLibrary.isbn(0);
+        LibraryService service = TestLibrary.open(dataDir);
+        try {
+            for (int i = 0; i < COPIES; i++) {
+                assertTrue(service.rentBook(TestLibrary.studentId(i), isbn));
+            }
+
+            // renters return what they get right away, so their returns hand copies over as well
+            AtomicBoolean running = new AtomicBoolean(true);
+            AtomicBoolean draining = new AtomicBoolean();
+            AtomicInteger steals = new AtomicInteger();
+            Set<String> renterIds = new HashSet<>();
+            List<Thread> renting = new ArrayList<>();
+            for (int t = 0; t < RENTERS; t++) {
+                String studentId = TestLibrary.studentId(COPIES + WAITERS + t);
+                renterIds.add(studentId);
+                Thread renter = new Thread(() -> {
+                    while (running.get()) {
+                        if (service.rentBook(studentId, isbn)) {
+                            // no holds are added while draining, so a queue that is not empty now was
+                            // not empty when the copy was taken either
+                            if (draining.get() && !service.holdQueue(isbn).isEmpty()) {
+                                steals.incrementAndGet();
+                            }
+                            service.returnBook(studentId, isbn);
+                        }
+                    }
+                });
+                renter.setDaemon(true); // a failed assertion leaves them running
+                renter.start();
+                renting.add(renter);
+            }
+
+            AtomicInteger refused = new AtomicInteger();
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> waiting = new ArrayList<>();
+            for (int w = 0; w < WAITERS; w++) {
+                String studentId = TestLibrary.studentId(COPIES + w);
+                Thread waiter = new Thread(() -> {
+                    try {
+                        start.await();
+                    }
+                    catch (InterruptedException e) {
+                        return;
+                    }
+                    if (!service.placeHold(studentId, isbn)) {
+                        refused.incrementAndGet();
+                    }
+                });
+                waiter.start();
+                waiting.add(waiter);
+            }
+            start.countDown();
+            for (Thread waiter : waiting) {
+                waiter.join();
+            }
+            assertEquals(0, refused.get(), "holds refused");
+
+            // the order the queue settled on, every hand-off from here on has to take its head
+            List<String> order = service.holdQueue(isbn);
+            draining.set(true);
+            int served = 0;
+            while (!service.holdQueue(isbn).isEmpty()) {
+                String holder = null;
+                for (String id : service.holdersOf(isbn)) {
+                    if (!renterIds.contains(id)) {
+                        holder = id;
+                        break;
+                    }
+                }
+                if (holder == null) {
+                    continue; // every copy is with a renter for the moment, their returns hand it over
+                }
+                service.returnBook(holder, isbn);
+
+                // the queue may only ever lose its head, and whoever left it holds a copy
+                List<String> left = service.holdQueue(isbn);
+                assertEquals(order.subList(order.size() - left.size(), order.size()), left);
+                for (int i = served; i < order.size() - left.size(); i++) {
+                    String studentId = order.get(i);
+                    assertTrue(service.getActiveRentals().holds(service.getActiveRentals().student(studentId), isbn),
+                            studentId + " left the queue without a copy");
+                }
+                served = order.size() - left.size();
+            }
+
+            running.set(false);
+            for (Thread renter : renting) {
+                renter.join();
+            }
+            assertEquals(WAITERS, served);
+            assertEquals(0, steals.get(), "copies rented past the queue");
+        }
+        finally {
+            service.shutdown();
+        }
+    }
+}
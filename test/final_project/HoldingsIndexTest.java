@@ -0,0 +1,129 @@
+package final_project;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// HoldingsIndexBenchmark cut down to run on every build: threads mix every rental call over a few isbns,
+// then holdersOf has to list exactly the students holding each isbn, also after a restart through the
+// checkpoint and after a replay of the logs alone
+class HoldingsIndexTest {
+
+    private static final int THREADS = 8;
+    private static final int BOOKS = 10;
+    private static final int COPIES = 5;
+    private static final int STUDENTS = 100;
+
+    @TempDir
+    Path dataDir;
+
+    @Test
+    void reverseIndexMatchesTheHoldings() throws Exception {
+        TestLibrary.write(dataDir, BOOKS, COPIES, STUDENTS);
+        LibraryService service = TestLibrary.open(dataDir);
+        try {
+            AtomicBoolean running = new AtomicBoolean(true);
+            List<Thread> workers = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                Thread worker = new Thread(() -> {
+                    while (running.get()) {
+                        step(service);
+                    }
+                });
+                worker.start();
+                workers.add(worker);
+            }
+            Thread.sleep(1000);
+            running.set(false);
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            assertMatches(service, "after the run");
+        }
+        finally {
+            service.shutdown();
+        }
+
+        LibraryService reopened = TestLibrary.open(dataDir);
+        try {
+            assertMatches(reopened, "after a restart");
+        }
+        finally {
+            reopened.shutdown();
+        }
+
+        Files.deleteIfExists(dataDir.resolve("rentals.ckpt"));
+        LibraryService replayed = TestLibrary.open(dataDir);
+        try {
+            assertMatches(replayed, "after a full replay");
+        }
+        finally {
+            replayed.shutdown();
+        }
+    }
+
+    // one random call, returns pick what the student really holds so most of them go through
+    private static void step(LibraryService service) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String studentId = TestLibrary.studentId(random.nextInt(STUDENTS));
+        String isbn = TestLibrary.isbn(random.nextInt(BOOKS));
+        HoldingsTable table = service.getActiveRentals();
+        List<String> held = table.holdings(table.student(studentId));
+        switch (random.nextInt(6)) {
+            case 0 -> service.rentBook(studentId, isbn);
+            case 1 -> {
+                if (!held.isEmpty()) {
+                    service.returnBook(studentId, held.get(random.nextInt(held.size())));
+                }
+            }
+            case 2 -> service.rentBooks(studentId, List.of(isbn, TestLibrary.isbn(random.nextInt(BOOKS))));
+            case 3 -> {
+                if (!held.isEmpty()) {
+                    service.returnBooks(studentId, held);
+                }
+            }
+            case 4 -> {
+                if (!service.placeHold(studentId, isbn)) {
+                    service.cancelHold(studentId, isbn);
+                }
+            }
+            default -> service.submitRentToMany(isbn, List.of(studentId,
+                    TestLibrary.studentId(random.nextInt(STUDENTS)))).join();
+        }
+    }
+
+    // holdersOf against the forward table and the catalog's counts, for every isbn
+    private static void assertMatches(LibraryService service, String when) {
+        HoldingsTable table = service.getActiveRentals();
+        Map<String, TreeSet<String>> forward = new HashMap<>();
+        long held = 0;
+        for (int student = 0; student < table.studentCount(); student++) {
+            for (String isbn : table.holdings(student)) {
+                forward.computeIfAbsent(isbn, k -> new TreeSet<>()).add(table.studentId(student));
+                held++;
+            }
+        }
+        assertEquals(held, table.size(), when + ": rentals counted by the table");
+
+        for (int i = 0; i < BOOKS; i++) {
+            String isbn = TestLibrary.isbn(i);
+            List<String> holders = service.holdersOf(isbn);
+            TreeSet<String> expected = forward.getOrDefault(isbn, new TreeSet<>());
+            assertEquals(holders.size(), new TreeSet<>(holders).size(), when + ": " + isbn + " lists a holder twice");
+            assertEquals(expected, new TreeSet<>(holders), when + ": holders of " + isbn);
+            assertEquals(expected.size(), service.getCatalog().get(isbn).orElseThrow().getCheckedOut(),
+                    when + ": copies of " + isbn + " checked out");
+        }
+    }
+}
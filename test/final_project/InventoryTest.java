@@ -0,0 +1,134 @@
+package final_project;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// InventoryStressBenchmark cut down to run on every build: a burst of renters on one title, then a short
+// churn, and no more copies may ever be out than the title has
+class InventoryTest {
+
+    private static final int COPIES = 10;
+    private static final int BURST = 200;
+    private static final int CHURNERS = 8;
+    private static final int STUDENTS_PER_CHURNER = 4;
+
+    @TempDir
+    Path dataDir;
+
+    @Test
+    void burstRentsExactlyTheCopies() throws Exception {
+        TestLibrary.write(dataDir, 1, COPIES, BURST);
+        String isbn = TestLibrary.isbn(0);
+        LibraryService service = TestLibrary.open(dataDir);
+        try {
+            AtomicInteger rented = new AtomicInteger();
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> renters = new ArrayList<>();
+            for (int t = 0; t < BURST; t++) {
+                String studentId = TestLibrary.studentId(t);
+                Thread renter = new Thread(() -> {
+                    try {
+                        start.await();
+                    }
+                    catch (InterruptedException e) {
+                        return;
+                    }
+                    if (service.rentBook(studentId, isbn)) {
+                        rented.incrementAndGet();
+                    }
+                });
+                renter.start();
+                renters.add(renter);
+            }
+            start.countDown();
+            for (Thread renter : renters) {
+                renter.join();
+            }
+
+            assertEquals(COPIES, rented.get());
+            assertConsistent(service, isbn);
+        }
+        finally {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    void churnNeverOversellsAndSurvivesARestart() throws Exception {
+        TestLibrary.write(dataDir, 1, COPIES, CHURNERS * STUDENTS_PER_CHURNER);
+        String isbn = TestLibrary.isbn(0);
+        LibraryService service = TestLibrary.open(dataDir);
+        int checkedOut;
+        try {
+            // outstanding is raised after a rent went through and lowered before the return is sent
+            AtomicInteger outstanding = new AtomicInteger();
+            AtomicInteger peak = new AtomicInteger();
+            AtomicBoolean running = new AtomicBoolean(true);
+            List<Thread> churners = new ArrayList<>();
+            for (int t = 0; t < CHURNERS; t++) {
+                int first = t * STUDENTS_PER_CHURNER;
+                Thread churner = new Thread(() -> {
+                    int next = 0;
+                    while (running.get()) {
+                        String studentId = TestLibrary.studentId(first + next);
+                        next = (next + 1) % STUDENTS_PER_CHURNER;
+                        if (service.rentBook(studentId, isbn)) {
+                            peak.accumulateAndGet(outstanding.incrementAndGet(), Math::max);
+                            // every other rental is kept, so the title runs out and rents are refused
+                            if (next % 2 == 0) {
+                                outstanding.decrementAndGet();
+                                service.returnBook(studentId, isbn);
+                            }
+                        }
+                        else {
+                            List<String> held = service.holdersOf(isbn);
+                            if (held.contains(studentId)) {
+                                outstanding.decrementAndGet();
+                                service.returnBook(studentId, isbn);
+                            }
+                        }
+                    }
+                });
+                churner.start();
+                churners.add(churner);
+            }
+            Thread.sleep(1000);
+            running.set(false);
+            for (Thread churner : churners) {
+                churner.join();
+            }
+
+            assertTrue(peak.get() <= COPIES, peak.get() + " copies out of " + COPIES);
+            assertConsistent(service, isbn);
+            checkedOut = service.getCatalog().get(isbn).orElseThrow().getCheckedOut();
+        }
+        finally {
+            service.shutdown();
+        }
+
+        LibraryService reopened = TestLibrary.open(dataDir);
+        try {
+            assertEquals(checkedOut, reopened.getCatalog().get(isbn).orElseThrow().getCheckedOut());
+            assertConsistent(reopened, isbn);
+        }
+        finally {
+            reopened.shutdown();
+        }
+    }
+
+    // the catalog's count stays within the copies and matches the students holding the title
+    private static void assertConsistent(LibraryService service, String isbn) {
+        int checkedOut = service.getCatalog().get(isbn).orElseThrow().getCheckedOut();
+        assertTrue(checkedOut <= COPIES, checkedOut + " checked out of " + COPIES);
+        assertEquals(checkedOut, service.holdersOf(isbn).size());
+    }
+}
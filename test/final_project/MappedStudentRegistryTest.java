@@ -0,0 +1,45 @@
+package final_project;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedStudentRegistryTest {
+
+    private static final int STUDENTS = 3000; // enough for the index to have grown a few times
+
+    @TempDir
+    Path dataDir;
+
+    @Test
+    void missingIndexIsRebuiltFromTheRecords() throws Exception {
+        MappedStudentRegistry registry = new MappedStudentRegistry(dataDir);
+        registry.load();
+        for (int i = 0; i < STUDENTS; i++) {
+            registry.addOrUpdateStudent(new Student("S" + i, "Student " + i, "Program", 1));
+        }
+        registry.addOrUpdateStudent(new Student("S7", "Renamed", "Program", 2));
+        registry.close();
+
+        Files.delete(dataDir.resolve("students.idx"));
+        registry = new MappedStudentRegistry(dataDir);
+        registry.load();
+        try {
+            assertEquals(STUDENTS, registry.listAll().size());
+            assertEquals("Renamed", registry.findById("S7").orElseThrow().getName());
+            assertEquals("Student 2999", registry.findById("S2999").orElseThrow().getName());
+
+            // the rebuilt table takes new students like any other
+            registry.addOrUpdateStudent(new Student("S" + STUDENTS, "New", "Program", 1));
+            assertEquals(STUDENTS + 1, registry.listAll().size());
+        }
+        finally {
+            registry.close();
+        }
+        assertTrue(Files.exists(dataDir.resolve("students.idx")));
+    }
+}
@@ -0,0 +1,47 @@
+package final_project;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+// small data directories for the tests, laid out like LibraryService's "data" folder
+//
+//   books     isbn "978" + i, "Title " + i
+//   students  id "S" + i, no logs
+final class TestLibrary {
+
+    private TestLibrary() {}
+
+    static void write(Path dataDir, int books, int copies, int students) throws IOException {
+        LibraryCatalog catalog = new LibraryCatalog(dataDir);
+        try {
+            for (int i = 0; i < books; i++) {
+                catalog.add(new Book(isbn(i), "Title " + i, copies));
+            }
+            catalog.save();
+        }
+        finally {
+            catalog.close();
+        }
+
+        BinaryStudentRegistry registry = new BinaryStudentRegistry(dataDir);
+        for (int i = 0; i < students; i++) {
+            registry.addOrUpdateStudent(new Student(studentId(i), "Student " + i, "Program " + (i % 12), 1 + i % 4));
+        }
+        registry.save();
+    }
+
+    // a started service over the directory, the caller shuts it down
+    static LibraryService open(Path dataDir) {
+        LibraryService service = new LibraryService(dataDir, DurabilityPolicy.NONE);
+        service.initDemoData();
+        return service;
+    }
+
+    static String isbn(int i) {
+        return "978" + i;
+    }
+
+    static String studentId(int i) {
+        return "S" + i;
+    }
+}